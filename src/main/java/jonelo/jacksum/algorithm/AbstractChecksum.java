@@ -25,6 +25,7 @@
 package jonelo.jacksum.algorithm;
 import java.util.zip.Checksum;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 abstract public class AbstractChecksum implements Checksum {
 
@@ -61,6 +62,13 @@ abstract public class AbstractChecksum implements Checksum {
        update(bytes,0,bytes.length);
     }
 
+    public void update(ByteBuffer buffer) {
+       while (buffer.hasRemaining())
+       {
+         update(buffer.get());
+       }
+    }
+
     public void update(int b) {    
        length++;
     }
@@ -73,6 +81,17 @@ abstract public class AbstractChecksum implements Checksum {
        return value;
     }
     
+    public byte[] getByteArray() {
+       long value = getValue();
+       byte[] bytes = new byte[8];
+       for (int i=bytes.length-1; i >= 0; i--)
+       {
+         bytes[i] = (byte)value;
+         value >>>= 8;
+       }
+       return bytes;
+    }
+
     public long getLength() {
        return length;
     }
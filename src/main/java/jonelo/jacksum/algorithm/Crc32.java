@@ -23,6 +23,7 @@
  *****************************************************************************/
 
 package jonelo.jacksum.algorithm;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 
 public class Crc32 extends AbstractChecksum {
@@ -44,6 +45,12 @@ public class Crc32 extends AbstractChecksum {
         crc32.update(buffer,offset,len);
         length+=len;
     }       
+
+    public void update(ByteBuffer buffer)
+    {
+        length+=buffer.remaining();
+        crc32.update(buffer);
+    }
     
     public long getValue()
     {
@@ -24,6 +24,7 @@
 
 
 package jonelo.jacksum.algorithm;
+import java.nio.ByteBuffer;
 import java.security.*;
 public class MD extends AbstractChecksum {
 
@@ -53,7 +54,18 @@ public class MD extends AbstractChecksum {
         md.update(buffer,offset,len);
         length+=len;
     }
+
+    public void update(ByteBuffer buffer)
+    {
+        length+=buffer.remaining();
+        md.update(buffer);
+    }
     
+    public byte[] getByteArray()
+    {
+       return md.digest();
+    }
+
     public String toString() {
        return getHexValue()+separator+getFilename();
     }
@@ -0,0 +1,26 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+/**
+ * The ways in which {@link ChecksumFileFactory} can calculate the checksums of a file.
+ */
+public enum CalculationMode {
+    /**
+     * Reads and hashes the parts one at a time in a single thread. This is the only mode which saves checkpoints, so
+     * that an interrupted calculation can be resumed.
+     */
+    SERIAL,
+
+    /**
+     * Hashes ranges of parts concurrently on a fork-join pool. Saves no checkpoints.
+     */
+    PARALLEL,
+
+    /**
+     * Reads the file in one thread and hashes the data in others at the same time. Saves no checkpoints.
+     */
+    PIPELINED
+}
@@ -0,0 +1,49 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.crc.Buffer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the parts with positional <code>FileChannel</code> reads into a reused direct buffer, so the data does not
+ * need to be copied onto the heap. The parts may be read in any order.
+ */
+public class ChannelPartSource implements PartSource {
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+    private Buffer view = new Buffer(buffer);
+
+    public void open(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+    }
+
+    public Buffer read(long position, int length) throws IOException {
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocateDirect(length);
+            view = new Buffer(buffer);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                break;
+        }
+        return view.setRange(0, buffer.position());
+    }
+
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.crc.*;
+import net.orfjackal.ccorr.io.Throttle;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+/**
+ * Calculates the checksum files of many files concurrently. All batches share one executor, which limits how many
+ * files are read at the same time, so that the disks are not thrashed. The listener is told the combined progress of
+ * the whole batch, and is given each checksum file as soon as it is completed. The cache and checkpoints are used the
+ * same way as by {@link ChecksumFileFactory}.
+ * <p/>
+ * To leave disk bandwidth to other programs, the batch can be run at a low thread priority, and its reading speed can
+ * be limited with its {@link Throttle}, also while it is running.
+ */
+public class ChecksumBatch {
+    private final static Logger logger = Logger.getLogger(ChecksumBatch.class.getName());
+
+    public static final int MAX_CONCURRENT_FILES = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_FILES, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ChecksumBatch-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    public interface Listener {
+        /**
+         * Called from the calculating threads when the combined progress of the batch has changed by at least one
+         * per mille.
+         */
+        void progressChanged(long completedBytes, long totalBytes);
+
+        /**
+         * Called from a calculating thread when the checksums of a file are ready.
+         */
+        void checksumFileCompleted(ChecksumFile checksumFile);
+
+        /**
+         * Called from a calculating thread when a file could not be read or the batch was cancelled.
+         */
+        void checksumFileFailed(File sourceFile);
+    }
+
+    private final List<File> sourceFiles;
+    private final long partLength;
+    private final String[] algorithms;
+    private final Listener listener;
+    private final long totalBytes;
+    private final AtomicLong completedBytes = new AtomicLong();
+    private final AtomicInteger lastPermille = new AtomicInteger(-1);
+    private final CountDownLatch remainingFiles;
+    private final Throttle throttle = new Throttle();
+    private volatile boolean lowPriority;
+    private volatile boolean cancelled;
+
+    public ChecksumBatch(List<File> sourceFiles, long partLength, String[] algorithms, Listener listener) {
+        this.sourceFiles = new ArrayList<File>(sourceFiles);
+        this.partLength = partLength;
+        this.algorithms = algorithms;
+        this.listener = listener;
+        long total = 0;
+        for (File file : sourceFiles)
+            total += file.length();
+        this.totalBytes = total;
+        this.remainingFiles = new CountDownLatch(sourceFiles.size());
+    }
+
+    public void start() {
+        logger.log(Level.INFO, "ChecksumBatch.start: {0} files, {1} bytes", new Object[]{sourceFiles.size(), totalBytes});
+        for (final File file : sourceFiles) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    Thread thread = Thread.currentThread();
+                    int priority = thread.getPriority();
+                    if (lowPriority)
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                    try {
+                        calculate(file);
+                    } finally {
+                        thread.setPriority(priority);
+                        remainingFiles.countDown();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Makes the files which have not yet been started to be calculated at the lowest thread priority.
+     */
+    public void setLowPriority(boolean lowPriority) {
+        this.lowPriority = lowPriority;
+    }
+
+    /**
+     * Returns the throttle which limits the reading of all the files of the batch. Its limits can be changed at any
+     * time.
+     */
+    public Throttle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Stops the calculations after their current parts. The files which have not been completed are reported as
+     * failed and their checkpoints are saved.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Waits until every file of the batch has been completed or has failed.
+     */
+    public void await() throws InterruptedException {
+        remainingFiles.await();
+    }
+
+    private void calculate(File file) {
+        FileDivider fileDivider = new FileDivider(file, partLength);
+        fileDivider.setThrottle(throttle);
+        ChecksumFile checksumFile = ChecksumFileFactory.EMPTY_DATA;
+        BatchCalculator calculator = new BatchCalculator(fileDivider);
+        if (!cancelled)
+            checksumFile = ChecksumFileFactory.calculate(fileDivider, algorithms, calculator);
+        calculator.completed(fileDivider.getSourceFileLength());
+        if (ChecksumFileFactory.EMPTY_DATA.equals(checksumFile))
+            listener.checksumFileFailed(file);
+        else
+            listener.checksumFileCompleted(checksumFile);
+    }
+
+    private void addProgress(long bytes) {
+        long completed = completedBytes.addAndGet(bytes);
+        int permille = totalBytes == 0 ? 1000 : (int) (completed * 1000 / totalBytes);
+        int last = lastPermille.get();
+        if (permille != last && lastPermille.compareAndSet(last, permille))
+            listener.progressChanged(completed, totalBytes);
+    }
+
+    /**
+     * Adds the progress of one file to the progress of the batch.
+     */
+    private class BatchCalculator extends FileChecksumsCalculator {
+        private long reportedBytes;
+
+        public BatchCalculator(FileDivider fileDivider) {
+            super(fileDivider, new CRC(CRCAlgorithmFactory.getByNames(algorithms)));
+        }
+
+        @Override
+        protected void updateProgress(int completedParts) throws IOException {
+            if (cancelled)
+                throw new InterruptedIOException("Cancelled");
+            report(Math.min(completedParts * getFileDivider().getPartLength(), getFileDivider().getSourceFileLength()));
+        }
+
+        /**
+         * Counts the rest of the file as done, whether it was calculated, found in the cache or failed.
+         */
+        public void completed(long fileLength) {
+            report(fileLength);
+        }
+
+        private void report(long bytes) {
+            if (bytes > reportedBytes) {
+                addProgress(bytes - reportedBytes);
+                reportedBytes = bytes;
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.crc.*;
+import net.orfjackal.ccorr.serialization.ObjectSaver;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.*;
+import java.util.Arrays;
+import java.util.logging.*;
+
+/**
+ * A local cache of calculated checksum files, so that adding the same file again does not need to read it. There is
+ * one entry per file path, algorithms and part length, and it is used only if the file still has the same file key
+ * (inode), length and modification time. If the same file has only grown, the checksums of its earlier complete
+ * parts can be reused and only the rest needs to be calculated.
+ */
+public class ChecksumCache {
+    private final static Logger logger = Logger.getLogger(ChecksumCache.class.getName());
+
+    public static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".ccorr-cache");
+
+    private final File directory;
+
+    public ChecksumCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cached checksum file, or null if the file is not cached or has changed since.
+     */
+    public ChecksumFile get(File sourceFile, long partLength, String[] algorithms) {
+        Entry entry = load(sourceFile, partLength, algorithms);
+        if (entry == null || !entry.isSameFile(sourceFile) || entry.checksumFile.getSourceFileLength() != sourceFile.length()
+                || entry.lastModified != sourceFile.lastModified())
+            return null;
+        logger.log(Level.INFO, "ChecksumCache.get: Found {0}", sourceFile);
+        return entry.checksumFile;
+    }
+
+    /**
+     * Returns the cached checksum file of an earlier version of the file, if the file has been appended to since.
+     * The last complete part of the earlier version is read again to check that the file has not been rewritten.
+     *
+     * @return null if the file has not grown or the cached checksums can not be reused
+     */
+    ChecksumFile getShorterVersion(FileDivider fileDivider, String[] algorithms) {
+        File sourceFile = fileDivider.getSourceFile();
+        Entry entry = load(sourceFile, fileDivider.getPartLength(), algorithms);
+        if (entry == null || !entry.isSameFile(sourceFile)
+                || entry.checksumFile.getSourceFileLength() >= fileDivider.getSourceFileLength())
+            return null;
+        int completeParts = getCompleteParts(entry.checksumFile);
+        try {
+            if (completeParts > 0 && !isPartUnchanged(fileDivider, entry.checksumFile, algorithms, completeParts - 1))
+                return null;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "ChecksumCache.getShorterVersion: Unable to read " + sourceFile, e);
+            return null;
+        }
+        logger.log(Level.INFO, "ChecksumCache.getShorterVersion: Reusing {0} parts of {1}", new Object[]{completeParts, sourceFile});
+        return entry.checksumFile;
+    }
+
+    static int getCompleteParts(ChecksumFile checksumFile) {
+        return (int) (checksumFile.getSourceFileLength() / checksumFile.getPartLength());
+    }
+
+    private static boolean isPartUnchanged(FileDivider fileDivider, ChecksumFile cached, String[] algorithms, int part) throws IOException {
+        FileDivider divider = new FileDivider(fileDivider.getSourceFile(), fileDivider.getPartLength(), new ChannelPartSource());
+        CRC crc = new CRC(CRCAlgorithmFactory.getByName(algorithms[0]));
+        Checksums checksums = new Checksums(crc.getDigestLength(), part + 1);
+        try {
+            divider.divide(part);
+            if (!divider.nextPart())
+                return false;
+            FileChecksumsCalculator.calculateChecksum(divider, crc);
+            checksums.set(part, crc);
+        } finally {
+            divider.close();
+        }
+        return checksums.equals(part, cached.getChecksums(algorithms[0]), part);
+    }
+
+    public void put(ChecksumFile checksumFile) {
+        File sourceFile = checksumFile.getSourceFile();
+        String fileKey = getFileKey(sourceFile);
+        if (fileKey == null)
+            return;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            logger.warning("ChecksumCache.put: Unable to create " + directory);
+            return;
+        }
+        Entry entry = new Entry(fileKey, sourceFile.lastModified(), checksumFile);
+        ObjectSaver.saveToFile(entryFile(sourceFile, checksumFile.getPartLength(), checksumFile.getAlgorithms()), entry);
+    }
+
+    private Entry load(File sourceFile, long partLength, String[] algorithms) {
+        File file = entryFile(sourceFile, partLength, algorithms);
+        if (file == null || !file.isFile())
+            return null;
+        Object loaded = ObjectSaver.loadFromFile(file);
+        return loaded instanceof Entry ? (Entry) loaded : null;
+    }
+
+    private File entryFile(File sourceFile, long partLength, String[] algorithms) {
+        try {
+            String key = sourceFile.getCanonicalPath() + "\n" + Arrays.toString(algorithms) + "\n" + partLength;
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash)
+                name.append(String.format("%02x", b));
+            return new File(directory, name.append(".ccf").toString());
+        } catch (IOException e) {
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the identity of the file in the file system, such as its device and inode, or the canonical path if
+     * the file system has no file keys.
+     */
+    private static String getFileKey(File file) {
+        try {
+            Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+            return key != null ? key.toString() : file.getCanonicalPath();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String fileKey;
+        private final long lastModified;
+        private final ChecksumFile checksumFile;
+
+        public Entry(String fileKey, long lastModified, ChecksumFile checksumFile) {
+            this.fileKey = fileKey;
+            this.lastModified = lastModified;
+            this.checksumFile = checksumFile;
+        }
+
+        public boolean isSameFile(File file) {
+            return fileKey.equals(getFileKey(file));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.serialization.ObjectSaver;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.Arrays;
+import java.util.logging.*;
+import java.util.zip.CRC32;
+
+/**
+ * The checksums of the parts which were completed before a calculation was interrupted. It is saved in the checkpoint
+ * directory set with {@link ChecksumFileFactory#setCheckpointDirectory}, and not next to the source file, because the
+ * copies being checked are often on read-only or damaged media. A later calculation of the same file continues from it if the file has
+ * not changed in between. The file is considered unchanged if its length and modification time are the same and a
+ * sample of its data has the same hash.
+ */
+class ChecksumCheckpoint implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final static Logger logger = Logger.getLogger(ChecksumCheckpoint.class.getName());
+
+    static final String SUFFIX = ".ccf.checkpoint";
+    private static final int SAMPLES = 3;
+    private static final int SAMPLE_LENGTH = 64 * 1024;
+
+    private final long sourceFileLength;
+    private final long lastModified;
+    private final long sampleChecksum;
+    private final long partLength;
+    private final String[] algorithms;
+    private final int completedParts;
+    private final Checksums[] checksums;
+
+    private ChecksumCheckpoint(long sourceFileLength, long lastModified, long sampleChecksum, long partLength,
+                               String[] algorithms, int completedParts, Checksums[] checksums) {
+        this.sourceFileLength = sourceFileLength;
+        this.lastModified = lastModified;
+        this.sampleChecksum = sampleChecksum;
+        this.partLength = partLength;
+        this.algorithms = algorithms;
+        this.completedParts = completedParts;
+        this.checksums = checksums;
+    }
+
+    /**
+     * Returns the file in the directory where the checkpoint of the source file is saved. It is named after a hash of
+     * the source file's path, so that the copies of a file with the same name do not share a checkpoint.
+     */
+    public static File fileFor(File directory, File sourceFile) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(sourceFile.getCanonicalPath().getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash)
+                name.append(String.format("%02x", b));
+            return new File(directory, name.append(SUFFIX).toString());
+        } catch (IOException e) {
+            return new File(directory, sourceFile.getName() + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Saves the first <code>completedParts</code> checksums. The file is replaced atomically, so that an earlier
+     * checkpoint is kept if the JVM dies while saving.
+     */
+    static boolean save(File checkpointFile, FileDivider fileDivider, long lastModified, String[] algorithms,
+                        Checksums[] checksums, int completedParts) {
+        try {
+            Checksums[] copy = new Checksums[checksums.length];
+            for (int i = 0; i < checksums.length; i++)
+                copy[i] = checksums[i].copy();
+            ChecksumCheckpoint checkpoint = new ChecksumCheckpoint(fileDivider.getSourceFileLength(), lastModified,
+                    sampleChecksum(fileDivider.getSourceFile()), fileDivider.getPartLength(), algorithms, completedParts, copy);
+            File directory = checkpointFile.getAbsoluteFile().getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Unable to create " + directory);
+            File tmp = new File(checkpointFile.getPath() + ".tmp");
+            if (!ObjectSaver.saveToFile(tmp, checkpoint))
+                return false;
+            Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.log(Level.INFO, "ChecksumCheckpoint.save: Saved {0} parts to {1}", new Object[]{completedParts, checkpointFile});
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "ChecksumCheckpoint.save: Unable to save " + checkpointFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Loads the checkpoint if it exists and was made from the same file with the same settings.
+     *
+     * @return null if there is no usable checkpoint
+     */
+    static ChecksumCheckpoint load(File checkpointFile, FileDivider fileDivider, String[] algorithms) {
+        if (!checkpointFile.isFile())
+            return null;
+        Object loaded = ObjectSaver.loadFromFile(checkpointFile);
+        if (!(loaded instanceof ChecksumCheckpoint))
+            return null;
+        ChecksumCheckpoint checkpoint = (ChecksumCheckpoint) loaded;
+        try {
+            if (!checkpoint.isFor(fileDivider, algorithms)) {
+                logger.info("ChecksumCheckpoint.load: " + fileDivider.getSourceFile() + " has changed, the checkpoint is not used");
+                return null;
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "ChecksumCheckpoint.load: Unable to verify " + fileDivider.getSourceFile(), e);
+            return null;
+        }
+        return checkpoint;
+    }
+
+    private boolean isFor(FileDivider fileDivider, String[] algorithms) throws IOException {
+        File sourceFile = fileDivider.getSourceFile();
+        return sourceFileLength == fileDivider.getSourceFileLength()
+                && lastModified == sourceFile.lastModified()
+                && partLength == fileDivider.getPartLength()
+                && Arrays.equals(this.algorithms, algorithms)
+                && completedParts <= fileDivider.getParts()
+                && sampleChecksum == sampleChecksum(sourceFile);
+    }
+
+    /**
+     * Returns the number of parts which do not need to be calculated again.
+     */
+    int getCompletedParts() {
+        return completedParts;
+    }
+
+    Checksums[] getChecksums() {
+        return checksums;
+    }
+
+    /**
+     * Hashes a few blocks spread evenly over the file, including its beginning and end.
+     */
+    private static long sampleChecksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[SAMPLE_LENGTH];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            long step = Math.max(0, length - SAMPLE_LENGTH) / (SAMPLES - 1);
+            for (int i = 0; i < SAMPLES; i++) {
+                raf.seek(step * i);
+                int n = raf.read(buffer);
+                if (n > 0)
+                    crc.update(buffer, 0, n);
+            }
+        } finally {
+            raf.close();
+        }
+        return crc.getValue();
+    }
+}
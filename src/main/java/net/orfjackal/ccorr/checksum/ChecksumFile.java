@@ -5,24 +5,55 @@
 package net.orfjackal.ccorr.checksum;
 
 import java.io.*;
-
+import java.nio.ByteBuffer;
+import java.security.*;
+import java.util.*;
+
+/**
+ * The checksums of the parts of one file. There is one column of checksums per algorithm which was used when reading
+ * the file. The first algorithm is the primary one, which is used by the methods that take no algorithm name.
+ */
 public class ChecksumFile implements Serializable {
+    private static final long serialVersionUID = -1152239664711224419L;
+
     private final Checksums checksums;
     private final String usedAlgorithm;
+    /**
+     * The columns of the other algorithms in the order in which they were used. Is null in the files saved by the
+     * earlier versions, which had only one algorithm.
+     */
+    private final LinkedHashMap<String, Checksums> otherChecksums;
     private final long partLength;
     private final File sourceFile;
     private final long sourceFileLength;
+    private transient Map<String, HashTree> hashTrees;
+    private transient Map<String, byte[]> digests;
 
     public ChecksumFile(Checksums checksums, String usedAlgorithm, long partLength, File sourceFile, long sourceFileLength) {
+        this(new Checksums[]{checksums}, new String[]{usedAlgorithm}, partLength, sourceFile, sourceFileLength);
+    }
+
+    public ChecksumFile(Checksums[] checksums, String[] usedAlgorithms, long partLength, File sourceFile, long sourceFileLength) {
+        this(checksums[0], usedAlgorithms[0], otherColumns(checksums, usedAlgorithms), partLength, sourceFile, sourceFileLength);
+    }
+
+    private ChecksumFile(Checksums checksums, String usedAlgorithm, LinkedHashMap<String, Checksums> otherChecksums,
+                         long partLength, File sourceFile, long sourceFileLength) {
         this.checksums = checksums;
         this.usedAlgorithm = usedAlgorithm;
+        this.otherChecksums = otherChecksums;
         this.partLength = partLength;
         this.sourceFile = sourceFile;
         this.sourceFileLength = sourceFileLength;
     }
 
-    boolean partPresentInFile(int part) {
-        return this.getChecksum(part) != null;
+    private static LinkedHashMap<String, Checksums> otherColumns(Checksums[] checksums, String[] usedAlgorithms) {
+        if (checksums.length != usedAlgorithms.length)
+            throw new IllegalArgumentException("Expected " + usedAlgorithms.length + " columns, got " + checksums.length);
+        LinkedHashMap<String, Checksums> columns = new LinkedHashMap<String, Checksums>();
+        for (int i = 1; i < checksums.length; i++)
+            columns.put(usedAlgorithms[i], checksums[i]);
+        return columns;
     }
 
     public int getParts() {
@@ -33,6 +64,129 @@ public class ChecksumFile implements Serializable {
         return checksums.get(part);
     }
 
+    /**
+     * Returns the checksum of the part calculated with the given algorithm, or null if the part does not exist or the
+     * algorithm was not used.
+     */
+    public String getChecksum(int part, String algorithm) {
+        Checksums column = getChecksums(algorithm);
+        return column == null ? null : column.get(part);
+    }
+
+    Checksums getChecksums() {
+        return checksums;
+    }
+
+    Checksums getChecksums(String algorithm) {
+        if (usedAlgorithm.equals(algorithm))
+            return checksums;
+        if (otherChecksums == null)
+            return null;
+        return otherChecksums.get(algorithm);
+    }
+
+    /**
+     * Returns the checksums of the given algorithm at a part length which is this file's part length times 1, 2, 4
+     * or 8, or null if there are no such checksums. The longer part lengths are read from the hash tree.
+     */
+    Checksums getChecksums(String algorithm, long partLength) {
+        if (partLength == this.partLength)
+            return getChecksums(algorithm);
+        int level = getTreeLevel(partLength);
+        if (level < 0 || !hasAlgorithm(algorithm))
+            return null;
+        return getHashTree(algorithm).getLevel(level);
+    }
+
+    /**
+     * Returns how many levels above the parts of this file the given part length is in the hash tree, or -1 if it
+     * is not in the tree.
+     */
+    int getTreeLevel(long partLength) {
+        for (int level = 0; level <= HashTree.LEVELS; level++)
+            if (this.partLength << level == partLength)
+                return level;
+        return -1;
+    }
+
+    /**
+     * The hash trees are derived from the checksums when first needed, so they are not saved with the file.
+     */
+    synchronized HashTree getHashTree(String algorithm) {
+        if (hashTrees == null)
+            hashTrees = new HashMap<String, HashTree>();
+        HashTree tree = hashTrees.get(algorithm);
+        if (tree == null) {
+            tree = HashTree.build(getChecksums(algorithm), algorithm, partLength, sourceFileLength);
+            hashTrees.put(algorithm, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Returns a SHA-1 digest of all the checksums of the given algorithm and of the file length. Two complete files
+     * with the same digest are identical as far as their checksums can tell. The digests are derived when first
+     * needed, so they are not saved with the file.
+     */
+    synchronized byte[] getDigest(String algorithm) {
+        if (digests == null)
+            digests = new HashMap<String, byte[]>();
+        byte[] digest = digests.get(algorithm);
+        if (digest == null) {
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            md.update(ByteBuffer.allocate(16).putLong(partLength).putLong(sourceFileLength).array());
+            getChecksums(algorithm).digest(md);
+            digest = md.digest();
+            digests.put(algorithm, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Returns true if both files are complete and have the same length, part length and checksums of the given
+     * algorithm, so that comparing them would find no differences.
+     */
+    public boolean isIdenticalTo(ChecksumFile other, String algorithm) {
+        if (other == this)
+            return true;
+        if (!isComplete() || !other.isComplete()
+                || partLength != other.partLength || sourceFileLength != other.sourceFileLength
+                || !hasAlgorithm(algorithm) || !other.hasAlgorithm(algorithm)
+                || !Arrays.equals(getDigest(algorithm), other.getDigest(algorithm)))
+            return false;
+        Checksums mine = getChecksums(algorithm);
+        Checksums theirs = other.getChecksums(algorithm);
+        if (mine.size() != theirs.size())
+            return false;
+        for (int part = 0; part < mine.size(); part++)
+            if (!mine.equals(part, theirs, part))
+                return false;
+        return true;
+    }
+
+    public boolean hasAlgorithm(String algorithm) {
+        return getChecksums(algorithm) != null;
+    }
+
+    /**
+     * Returns false if some parts were skipped when the file was read, as with
+     * {@link ChecksumFileFactory#createChecksumFileLazily}. Such a file has no hash tree.
+     */
+    public boolean isComplete() {
+        if (!checksums.isComplete())
+            return false;
+        if (otherChecksums != null)
+            for (Checksums column : otherChecksums.values())
+                if (!column.isComplete())
+                    return false;
+        return true;
+    }
+
     public boolean hasPart(int part) {
         return checksums.isValidIndex(part);
     }
@@ -59,7 +213,7 @@ public class ChecksumFile implements Serializable {
     public ChecksumFile setSourceFile(File file) {
         ChecksumFile newChecksumFile = this;
         if (isValidFile(file))
-            newChecksumFile = new ChecksumFile(checksums, usedAlgorithm, partLength, file, sourceFileLength);
+            newChecksumFile = new ChecksumFile(checksums, usedAlgorithm, otherChecksums, partLength, file, sourceFileLength);
         return newChecksumFile;
     }
 
@@ -83,6 +237,14 @@ public class ChecksumFile implements Serializable {
         return usedAlgorithm;
     }
 
+    public String[] getAlgorithms() {
+        List<String> algorithms = new ArrayList<String>();
+        algorithms.add(usedAlgorithm);
+        if (otherChecksums != null)
+            algorithms.addAll(otherChecksums.keySet());
+        return algorithms.toArray(new String[algorithms.size()]);
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < this.getParts(); i++)
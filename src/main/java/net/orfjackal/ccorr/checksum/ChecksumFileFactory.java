@@ -6,26 +6,170 @@ package net.orfjackal.ccorr.checksum;
 
 import net.orfjackal.ccorr.crc.*;
 
-import java.io.File;
+import java.io.*;
+import java.util.*;
 import java.util.logging.*;
 
 public class ChecksumFileFactory {
     private final static Logger logger = Logger.getLogger(ChecksumFileFactory.class.getName());
 
     public static final ChecksumFile EMPTY_DATA = new ChecksumFile(null, "", -1, null, -1);
+    public static final long CHECKPOINT_INTERVAL = 60 * 1000;
+    public static final File DEFAULT_CHECKPOINT_DIRECTORY = new File(System.getProperty("user.home"), ".ccorr-checkpoints");
+
+    private static volatile ChecksumCache cache;
+    private static volatile File checkpointDirectory;
+
+    /**
+     * Sets the cache which is checked before calculating the checksums of a file, and where the calculated checksums
+     * are stored. By default there is no cache.
+     */
+    public static void setCache(ChecksumCache cache) {
+        ChecksumFileFactory.cache = cache;
+    }
+
+    /**
+     * Sets the directory where the checkpoints of interrupted calculations are saved, or null to save no
+     * checkpoints. By default no checkpoints are saved.
+     */
+    public static void setCheckpointDirectory(File directory) {
+        ChecksumFileFactory.checkpointDirectory = directory;
+    }
 
     public static ChecksumFile createChecksumFile(File file, long partLength, String algorithm) {
-        return generateChecksums(file, partLength, algorithm);
+        return createChecksumFile(file, partLength, algorithm, CalculationMode.SERIAL);
+    }
+
+    public static ChecksumFile createChecksumFile(File file, long partLength, String algorithm, CalculationMode mode) {
+        return createChecksumFile(file, partLength, new String[]{algorithm}, mode);
+    }
+
+    /**
+     * Reads the file once and calculates a column of checksums with each of the algorithms. The first algorithm
+     * becomes the primary one of the checksum file. In the {@link CalculationMode#SERIAL} mode, if the calculation is
+     * cancelled or fails, the parts completed so far are saved in a checkpoint in the checkpoint directory, and the
+     * next calculation of the unchanged file continues from there.
+     */
+    public static ChecksumFile createChecksumFile(File file, long partLength, String[] algorithms, CalculationMode mode) {
+        return generateChecksums(file, partLength, algorithms, mode);
+    }
+
+    /**
+     * Calculates the checksums of a further copy of the compared files only at the parts where the files do not
+     * already agree (see {@link ChecksumFiles#getUndecidedParts}), with the algorithm and part length at which they are
+     * compared. The other parts are not read, and they are missing from the returned file. If fewer than two files are
+     * compared, or their part lengths differ, the whole file is read.
+     *
+     * @throws IllegalArgumentException if no checksums can be calculated with the algorithm of the files, as with the
+     *                                  labels of {@link DirectComparator}
+     */
+    public static ChecksumFile createChecksumFileLazily(File file, ChecksumFiles files) {
+        if (files.size() == 0)
+            throw new IllegalArgumentException("No files to compare with");
+        String algorithm = files.getAlgorithm();
+        if (!CRCAlgorithmFactory.isSupported(algorithm))
+            throw new IllegalArgumentException("Checksums can not be calculated with " + algorithm);
+        long partLength = files.getPartLength();
+        boolean samePartLength = true;
+        for (ChecksumFile f : files)
+            samePartLength &= f.getPartLength() == partLength;
+        if (files.size() < 2 || !samePartLength)
+            return createChecksumFile(file, partLength, algorithm);
+
+        int parts = new FileDivider(file, partLength).getParts();
+        return createChecksumFileOfParts(file, partLength, algorithm, files.getUndecidedParts(parts));
     }
 
-    private static ChecksumFile generateChecksums(File sourceFile, long partLength, String algorithm) {
-        logger.log(Level.INFO, "generateChecksums({0}, {1}) from {2}", new Object[]{partLength, algorithm, sourceFile});
+    /**
+     * Calculates the checksums of only the given parts of the file, reading them with positional reads. The other
+     * parts are missing from the returned file.
+     */
+    public static ChecksumFile createChecksumFileOfParts(File file, long partLength, String algorithm, BitSet parts) {
+        FileDivider fileDivider = new FileDivider(file, partLength, new ChannelPartSource());
+        logger.log(Level.INFO, "createChecksumFileOfParts: Reading {0} of {1} parts of {2}",
+                new Object[]{parts.cardinality(), fileDivider.getParts(), file});
+        ChecksumFile checksumFile = new LazyChecksumsCalculator(fileDivider, parts, algorithm).calculateChecksums();
+        logger.info(!EMPTY_DATA.equals(checksumFile) ? "createChecksumFileOfParts: Done" : "createChecksumFileOfParts: Failed");
+        return checksumFile;
+    }
+
+    /**
+     * Calculates the checksums of only the sub-parts from <code>fromPart</code> (inclusive) to <code>toPart</code>
+     * (exclusive) of the file, so that nothing else of the file is read.
+     */
+    public static List<String> calculateSubPartChecksums(File file, long subPartLength, String algorithm,
+                                                         int fromPart, int toPart) throws IOException {
+        if (!CRCAlgorithmFactory.isSupported(algorithm))
+            throw new IllegalArgumentException("Checksums can not be calculated with " + algorithm);
+        FileDivider fileDivider = FileDivider.forSubParts(file, subPartLength);
+        CRC crc = new CRC(CRCAlgorithmFactory.getByName(algorithm));
+        List<String> checksums = new ArrayList<String>();
+        try {
+            fileDivider.divide(fromPart);
+            for (int part = fromPart; part < toPart && fileDivider.nextPart(); part++) {
+                FileChecksumsCalculator.calculateChecksum(fileDivider, crc);
+                checksums.add(crc.getHexValue());
+            }
+        } finally {
+            fileDivider.close();
+        }
+        return checksums;
+    }
+
+    private static ChecksumFile generateChecksums(File sourceFile, long partLength, String[] algorithms, CalculationMode mode) {
+        logger.log(Level.INFO, "generateChecksums({0}, {1}, {2}) from {3}", new Object[]{partLength, Arrays.toString(algorithms), mode, sourceFile});
 
         FileDivider fileDivider = new FileDivider(sourceFile, partLength);
-        FileChecksumsCalculator checksumsCalculator = new MonitoredChecksumsCalculator(fileDivider, new CRC(CRCAlgorithmFactory.getByName(algorithm)));
+        return calculate(fileDivider, algorithms, createCalculator(fileDivider, algorithms, mode));
+    }
+
+    /**
+     * Calculates the checksums with the given calculator, unless they are found in the cache.
+     */
+    static ChecksumFile calculate(FileDivider fileDivider, String[] algorithms, FileChecksumsCalculator checksumsCalculator) {
+        File sourceFile = fileDivider.getSourceFile();
+        ChecksumCache cache = ChecksumFileFactory.cache;
+        if (cache != null) {
+            ChecksumFile cached = cache.get(sourceFile, fileDivider.getPartLength(), algorithms);
+            if (cached != null) {
+                logger.info("generateChecksums: Found in cache");
+                return cached;
+            }
+        }
+
+        File checkpointDirectory = ChecksumFileFactory.checkpointDirectory;
+        if (checkpointDirectory != null && checksumsCalculator.supportsCheckpoints())
+            checksumsCalculator.setCheckpointFile(ChecksumCheckpoint.fileFor(checkpointDirectory, sourceFile), CHECKPOINT_INTERVAL);
+        if (cache != null)
+            reuseShorterVersion(cache, fileDivider, algorithms, checksumsCalculator);
         ChecksumFile checksumFile = checksumsCalculator.calculateChecksums();
+        if (cache != null && !EMPTY_DATA.equals(checksumFile))
+            cache.put(checksumFile);
 
         logger.info(!EMPTY_DATA.equals(checksumFile) ? "generateChecksums: Done" : "generateChecksums: Failed");
         return checksumFile;
     }
+
+    private static void reuseShorterVersion(ChecksumCache cache, FileDivider fileDivider, String[] algorithms,
+                                            FileChecksumsCalculator checksumsCalculator) {
+        ChecksumFile shorter = cache.getShorterVersion(fileDivider, algorithms);
+        if (shorter == null)
+            return;
+        Checksums[] checksums = new Checksums[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++)
+            checksums[i] = shorter.getChecksums(algorithms[i]).copy();
+        checksumsCalculator.setInitialChecksums(checksums, ChecksumCache.getCompleteParts(shorter));
+    }
+
+    private static FileChecksumsCalculator createCalculator(FileDivider fileDivider, String[] algorithms, CalculationMode mode) {
+        switch (mode) {
+            case PARALLEL:
+                return new ParallelChecksumsCalculator(fileDivider, algorithms);
+            case PIPELINED:
+                return new PipelinedChecksumsCalculator(fileDivider, algorithms);
+            case SERIAL:
+            default:
+                return new MonitoredChecksumsCalculator(fileDivider, new CRC(CRCAlgorithmFactory.getByNames(algorithms)));
+        }
+    }
 }
\ No newline at end of file
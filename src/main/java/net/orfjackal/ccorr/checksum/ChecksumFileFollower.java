@@ -0,0 +1,128 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.crc.*;
+
+import java.io.*;
+import java.util.logging.*;
+
+/**
+ * Follows a file which is still growing, such as a download in progress. The file is polled for new data, and only
+ * the parts appended since the last poll are hashed, together with the trailing part if it was incomplete. After each
+ * change the listener is given a new {@link ChecksumFile} of the file so far.
+ */
+public class ChecksumFileFollower implements Runnable {
+    private final static Logger logger = Logger.getLogger(ChecksumFileFollower.class.getName());
+
+    public static final long DEFAULT_POLL_INTERVAL = 1000;
+
+    public interface Listener {
+        /**
+         * Called from the following thread when the file has grown.
+         */
+        void checksumFileUpdated(ChecksumFile checksumFile);
+    }
+
+    private final File sourceFile;
+    private final long partLength;
+    private final String[] algorithms;
+    private final long pollInterval;
+    private final Listener listener;
+    private final CRC crc;
+    private Checksums[] checksums;
+    private int completeParts;
+    /**
+     * The length of the file at the last poll, or -1 before the first poll.
+     */
+    private long hashedLength;
+    private volatile Thread thread;
+
+    public ChecksumFileFollower(File sourceFile, long partLength, String algorithm, Listener listener) {
+        this(sourceFile, partLength, new String[]{algorithm}, DEFAULT_POLL_INTERVAL, listener);
+    }
+
+    public ChecksumFileFollower(File sourceFile, long partLength, String[] algorithms, long pollInterval, Listener listener) {
+        this.sourceFile = sourceFile;
+        this.partLength = partLength;
+        this.algorithms = algorithms;
+        this.pollInterval = pollInterval;
+        this.listener = listener;
+        this.crc = new CRC(CRCAlgorithmFactory.getByNames(algorithms));
+        startOver();
+    }
+
+    private void startOver() {
+        checksums = new Checksums[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++)
+            checksums[i] = new Checksums(crc.getDigestLength(i));
+        completeParts = 0;
+        hashedLength = -1;
+    }
+
+    public synchronized void start() {
+        if (thread != null)
+            return;
+        thread = new Thread(this, "Following " + sourceFile.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public void run() {
+        Thread current = Thread.currentThread();
+        while (thread == current) {
+            try {
+                poll();
+                Thread.sleep(pollInterval);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "ChecksumFileFollower: Unable to read " + sourceFile, e);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hashes the parts which have been appended since the last poll and the trailing part, and notifies the listener.
+     * If the file has become shorter, it is hashed again from the beginning.
+     *
+     * @return false if the file has not changed
+     */
+    public synchronized boolean poll() throws IOException {
+        FileDivider fileDivider = new FileDivider(sourceFile, partLength, new ChannelPartSource());
+        long length = fileDivider.getSourceFileLength();
+        if (length == hashedLength)
+            return false;
+        if (length < hashedLength)
+            startOver();
+        try {
+            fileDivider.divide(completeParts);
+            for (int part = completeParts; fileDivider.nextPart(); part++) {
+                FileChecksumsCalculator.calculateChecksum(fileDivider, crc);
+                FileChecksumsCalculator.setChecksums(checksums, part, crc);
+            }
+        } finally {
+            fileDivider.close();
+        }
+        completeParts = (int) (length / fileDivider.getPartLength());
+        hashedLength = length;
+        listener.checksumFileUpdated(new ChecksumFile(copyOfChecksums(), algorithms, fileDivider.getPartLength(), sourceFile, length));
+        return true;
+    }
+
+    private Checksums[] copyOfChecksums() {
+        Checksums[] copy = new Checksums[checksums.length];
+        for (int i = 0; i < checksums.length; i++)
+            copy[i] = checksums[i].copy();
+        return copy;
+    }
+}
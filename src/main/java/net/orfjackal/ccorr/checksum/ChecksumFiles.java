@@ -4,58 +4,252 @@
 
 package net.orfjackal.ccorr.checksum;
 
+import net.orfjackal.ccorr.crc.CrcCombiner;
+
 import java.io.Serializable;
 import java.util.*;
 
+/**
+ * The checksum files of a comparison. Files with different part lengths can be compared, if the checksums of their
+ * algorithm can be combined and the longest part length is 2, 4 or 8 times the others. Then all the files are
+ * compared at the longest part length using their {@link HashTree}s, and the part indexes of the methods of this
+ * class are at that part length.
+ * <p/>
+ * When identical files are collapsed, a file which is identical to one in the list is kept as a copy of that file
+ * instead of being compared separately, and the indexes of the methods of this class refer to the files in the list.
+ */
 public class ChecksumFiles implements Serializable, Iterable<ChecksumFile> {
+    private static final long serialVersionUID = 7377134180411573250L;
+
     private List<ChecksumFile> files;
+    /**
+     * The identical copies of the files in the list. Is null in the files saved by the earlier versions.
+     */
+    private IdentityHashMap<ChecksumFile, List<ChecksumFile>> identicalCopies;
+    private boolean collapseIdentical;
+    private transient String algorithm;
+    private transient long partLength;
 
     public ChecksumFiles() {
         this.files = new ArrayList<ChecksumFile>();
     }
 
     public int findShorterFileParts(int index1, int index2) {
-        int shortest = files.get(index1).getParts();
-        if (files.get(index2).getParts() < shortest)
-            shortest = files.get(index2).getParts();
-        return shortest;
+        return Math.min(getParts(index1), getParts(index2));
     }
 
     public boolean add(ChecksumFile file) {
         if (isValidFileToAdd(file) && !isAlreadyAdded(file)) {
-            files.add(file);
+            int original = collapseIdentical ? findIdentical(file) : -1;
+            if (original >= 0)
+                copiesOf(files.get(original)).add(file);
+            else
+                files.add(file);
+            filesChanged();
             return true;
         }
         return false;
     }
 
+    private int findIdentical(ChecksumFile file) {
+        if (size() == 0)
+            return -1;
+        String algorithm = getCommonAlgorithms(file).get(0);
+        for (int i = 0; i < files.size(); i++)
+            if (files.get(i).isIdenticalTo(file, algorithm))
+                return i;
+        return -1;
+    }
+
+    private IdentityHashMap<ChecksumFile, List<ChecksumFile>> getIdenticalCopies() {
+        if (identicalCopies == null)
+            identicalCopies = new IdentityHashMap<ChecksumFile, List<ChecksumFile>>();
+        return identicalCopies;
+    }
+
+    private List<ChecksumFile> copiesOf(ChecksumFile file) {
+        List<ChecksumFile> copies = getIdenticalCopies().get(file);
+        if (copies == null) {
+            copies = new ArrayList<ChecksumFile>();
+            getIdenticalCopies().put(file, copies);
+        }
+        return copies;
+    }
+
+    /**
+     * Sets whether the files which are identical to an earlier file are kept as its copies instead of being compared
+     * separately. Collapsing groups the files which have already been added, and expanding puts the copies back to
+     * the list right after their file.
+     */
+    public void setCollapseIdentical(boolean collapse) {
+        if (collapse == collapseIdentical)
+            return;
+        collapseIdentical = collapse;
+        List<ChecksumFile> all = new ArrayList<ChecksumFile>();
+        for (int i = 0; i < files.size(); i++) {
+            all.add(files.get(i));
+            all.addAll(getCopies(i));
+        }
+        files = new ArrayList<ChecksumFile>();
+        getIdenticalCopies().clear();
+        filesChanged();
+        for (ChecksumFile file : all) {
+            int original = collapse ? findIdentical(file) : -1;
+            if (original >= 0)
+                copiesOf(files.get(original)).add(file);
+            else
+                files.add(file);
+            filesChanged();
+        }
+    }
+
+    public boolean isCollapsingIdentical() {
+        return collapseIdentical;
+    }
+
+    /**
+     * Returns how many identical files the file at the index stands for, including itself.
+     */
+    public int getMultiplicity(int index) {
+        List<ChecksumFile> copies = getIdenticalCopies().get(files.get(index));
+        return copies == null ? 1 : 1 + copies.size();
+    }
+
+    /**
+     * Returns the identical copies of the file at the index, not including itself.
+     */
+    public List<ChecksumFile> getCopies(int index) {
+        List<ChecksumFile> copies = getIdenticalCopies().get(files.get(index));
+        return copies == null ? Collections.<ChecksumFile>emptyList() : Collections.unmodifiableList(copies);
+    }
+
+    private void filesChanged() {
+        algorithm = null;
+        partLength = 0;
+    }
+
     boolean isValidFileToAdd(ChecksumFile file) {
-        return (file != null && hasSamePartLength(file))
-                && hasSameAlgorithm(file);
+        return file != null && hasSameAlgorithm(file) && hasComparablePartLength(file);
     }
 
-    boolean hasSamePartLength(ChecksumFile file) {
-        return getPartLength() <= 0 || file.getPartLength() == getPartLength();
+    boolean hasComparablePartLength(ChecksumFile file) {
+        if (size() == 0)
+            return true;
+        long longest = Math.max(getPartLength(), file.getPartLength());
+        boolean sameLength = true;
+        boolean complete = file.isComplete();
+        for (ChecksumFile f : files) {
+            if (f.getTreeLevel(longest) < 0)
+                return false;
+            sameLength &= f.getPartLength() == file.getPartLength();
+            complete &= f.isComplete();
+        }
+        return file.getTreeLevel(longest) >= 0
+                && (sameLength || (complete && CrcCombiner.isCombinable(getCommonAlgorithms(file).get(0))));
     }
 
+    /**
+     * Returns the part length at which the files are compared, which is the longest part length of the files.
+     */
     public long getPartLength() {
         if (size() == 0)
             return -1;
-        return get(0).getPartLength();
+        if (partLength == 0)
+            for (ChecksumFile file : files)
+                partLength = Math.max(partLength, file.getPartLength());
+        return partLength;
     }
 
+    /**
+     * Returns true if the file has a column of checksums calculated with some algorithm that all the files have.
+     */
     boolean hasSameAlgorithm(ChecksumFile file) {
-        return (getAlgorithm() == null || file.getAlgorithm().equals(getAlgorithm()));
+        return size() == 0 || !getCommonAlgorithms(file).isEmpty();
     }
 
+    /**
+     * Returns the algorithm whose checksums are compared. It is the first algorithm of the first file which all the
+     * files have.
+     */
     public String getAlgorithm() {
         if (size() == 0)
             return null;
-        return get(0).getAlgorithm();
+        if (algorithm == null)
+            algorithm = getCommonAlgorithms(null).get(0);
+        return algorithm;
+    }
+
+    private List<String> getCommonAlgorithms(ChecksumFile another) {
+        List<String> common = new ArrayList<String>(Arrays.asList(get(0).getAlgorithms()));
+        for (Iterator<String> it = common.iterator(); it.hasNext(); ) {
+            String algorithm = it.next();
+            boolean shared = another == null || another.hasAlgorithm(algorithm);
+            for (ChecksumFile file : files)
+                shared &= file.hasAlgorithm(algorithm);
+            if (!shared)
+                it.remove();
+        }
+        return common;
     }
 
+    /**
+     * Replaces a file with a newer version of the same file, such as one which has more parts because the file has
+     * grown. The new version must have the same algorithms and part length as the old one. The identical copies of
+     * the old version are put back to the list after it, because they are not identical to the new version.
+     */
+    public boolean replace(ChecksumFile oldFile, ChecksumFile newFile) {
+        int index = files.indexOf(oldFile);
+        if (index < 0 || newFile == null
+                || newFile.getPartLength() != oldFile.getPartLength()
+                || !Arrays.equals(newFile.getAlgorithms(), oldFile.getAlgorithms()))
+            return false;
+        files.set(index, newFile);
+        List<ChecksumFile> copies = getIdenticalCopies().remove(oldFile);
+        if (copies != null)
+            files.addAll(index + 1, copies);
+        filesChanged();
+        return true;
+    }
+
+    /**
+     * Returns the parts, of the first <code>parts</code> parts, which a further copy of the file needs to be read at
+     * for the comparison to find all the differences. Those are the parts where the files do not all agree, or which
+     * fewer than two files have. The parts where two or more files agree and none disagrees are already known to be
+     * good, so a copy which differs there would only be corrupt.
+     */
+    public BitSet getUndecidedParts(int parts) {
+        BitSet undecided = new BitSet(parts);
+        for (int part = 0; part < parts; part++) {
+            int first = -1;
+            boolean decided = false;
+            for (int file = 0; file < size(); file++) {
+                if (!hasPart(file, part))
+                    continue;
+                if (first < 0) {
+                    first = file;
+                } else if (arePartsEquals(part, first, file)) {
+                    decided = true;
+                } else {
+                    decided = false;
+                    break;
+                }
+            }
+            if (!decided)
+                undecided.set(part);
+        }
+        return undecided;
+    }
+
+    /**
+     * Removes the file at the index together with its identical copies.
+     */
     public boolean remove(int index) {
-        return isValidFileIndex(index) && files.remove(index) != null;
+        if (isValidFileIndex(index)) {
+            getIdenticalCopies().remove(files.remove(index));
+            filesChanged();
+            return true;
+        }
+        return false;
     }
 
     public boolean isValidFileIndex(int file) {
@@ -70,20 +264,96 @@ public class ChecksumFiles implements Serializable, Iterable<ChecksumFile> {
         return files.size();
     }
 
+    private Checksums getChecksums(int file) {
+        return files.get(file).getChecksums(getAlgorithm(), getPartLength());
+    }
+
+    public int getParts(int file) {
+        return getChecksums(file).size();
+    }
+
+    public boolean hasPart(int file, int part) {
+        return getChecksums(file).isValidIndex(part);
+    }
+
+    /**
+     * Returns the checksum of the part calculated with the algorithm that all the files have.
+     */
+    public String getChecksum(int file, int part) {
+        return getChecksums(file).get(part);
+    }
+
+    public long getStartOffset(int file, int part) {
+        validatePart(file, part);
+        return getPartLength() * part;
+    }
+
+    public long getEndOffset(int file, int part) {
+        validatePart(file, part);
+        return Math.min(getPartLength() * (part + 1), files.get(file).getSourceFileLength()) - 1;
+    }
+
+    private void validatePart(int file, int part) {
+        if (!hasPart(file, part))
+            throw new IndexOutOfBoundsException();
+    }
+
     public boolean arePartsEquals(int part, int file1, int file2) {
-        String checksum1 = files.get(file1).getChecksum(part);
-        String checksum2 = files.get(file2).getChecksum(part);
-        return checksum1.equals(checksum2);
+        return getChecksums(file1).equals(part, getChecksums(file2), part);
+    }
+
+    /**
+     * Returns how many levels of hash tree nodes above the compared parts can be compared between the two files. The
+     * labels of a {@link DirectComparator} and the files with skipped parts have no hash tree.
+     */
+    public int getCommonTreeLevels(int file1, int file2) {
+        if (DirectComparator.ALGORITHM.equals(getAlgorithm())
+                || !files.get(file1).isComplete() || !files.get(file2).isComplete())
+            return 0;
+        int level1 = files.get(file1).getTreeLevel(getPartLength());
+        int level2 = files.get(file2).getTreeLevel(getPartLength());
+        if (level1 != level2 && !CrcCombiner.isCombinable(getAlgorithm()))
+            return 0;
+        return HashTree.LEVELS - Math.max(level1, level2);
+    }
+
+    /**
+     * Compares the hash tree nodes which cover the parts from <code>node * 2^level</code> to <code>(node + 1) *
+     * 2^level - 1</code>. The level must be at most {@link #getCommonTreeLevels}.
+     */
+    public boolean areNodesEqual(int level, int node, int file1, int file2) {
+        long nodeLength = getPartLength() << level;
+        Checksums nodes1 = files.get(file1).getChecksums(getAlgorithm(), nodeLength);
+        Checksums nodes2 = files.get(file2).getChecksums(getAlgorithm(), nodeLength);
+        return nodes1.equals(node, nodes2, node);
     }
 
     private boolean isAlreadyAdded(ChecksumFile file) {
-        for (ChecksumFile f : this)
+        for (ChecksumFile f : this) {
             if (file == f) return true;
+            List<ChecksumFile> copies = getIdenticalCopies().get(f);
+            if (copies != null && copies.contains(file)) return true;
+        }
         return false;
     }
 
+    /**
+     * Returns how many parts both files have, which is the number of parts of the shorter file unless some parts were
+     * skipped when reading the files.
+     */
+    public int countPartsPresentInBothFiles(int index1, int index2) {
+        int shortest = findShorterFileParts(index1, index2);
+        if (files.get(index1).isComplete() && files.get(index2).isComplete())
+            return shortest;
+        int count = 0;
+        for (int part = 0; part < shortest; part++)
+            if (isPartPresentInBothFiles(part, index1, index2))
+                count++;
+        return count;
+    }
+
     public boolean isPartPresentInBothFiles(int part, int index1, int index2) {
-        return files.get(index1).partPresentInFile(part) && files.get(index2).partPresentInFile(part);
+        return hasPart(index1, part) && hasPart(index2, part);
     }
 
     @Override
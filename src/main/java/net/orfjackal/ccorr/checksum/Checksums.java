@@ -4,25 +4,329 @@
 
 package net.orfjackal.ccorr.checksum;
 
-import java.io.Serializable;
-import java.util.List;
+import net.orfjackal.ccorr.crc.CRC;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * The checksums of the parts of a file in binary form. Checksums of at most 8 bytes (CRC-32 etc.) are stored in a
+ * <code>long[]</code> and longer message digests (MD5, SHA-1) are packed into a <code>byte[]</code>. The parts which
+ * consist of only one repeated byte are flagged in a bitset and only that byte is stored. The hex strings are
+ * formatted only when {@link #get} is called. Parts which were skipped when the file was read are flagged as missing,
+ * and they are not valid indexes even though they are within the size.
+ */
 public class Checksums implements Serializable {
-    private List<String> checksums;
+    private static final long serialVersionUID = -5574601351320393034L;
+
+    /**
+     * The field <code>checksums</code> is the list of hex strings used by the earlier versions. It is never written,
+     * but it is declared so that the old files can be read.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("width", int.class),
+            new ObjectStreamField("size", int.class),
+            new ObjectStreamField("values", long[].class),
+            new ObjectStreamField("digests", byte[].class),
+            new ObjectStreamField("uniform", BitSet.class),
+            new ObjectStreamField("missing", BitSet.class),
+            new ObjectStreamField("checksums", List.class),
+    };
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int width;
+    private int size;
+    private long[] values;
+    private byte[] digests;
+    private BitSet uniform;
+    private BitSet missing;
+
+    public Checksums(int width) {
+        this(width, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param width    the length of one checksum in bytes
+     * @param capacity the expected number of parts
+     */
+    public Checksums(int width, int capacity) {
+        this.width = width;
+        this.size = 0;
+        this.uniform = new BitSet();
+        this.missing = new BitSet();
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Returns a copy which is not affected by later changes to this object.
+     */
+    public Checksums copy() {
+        Checksums copy = new Checksums(width, size);
+        if (isLong())
+            System.arraycopy(values, 0, copy.values, 0, size);
+        else
+            System.arraycopy(digests, 0, copy.digests, 0, size * width);
+        copy.uniform = (BitSet) uniform.clone();
+        copy.missing = (BitSet) missing.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    private void allocate(int capacity) {
+        if (isLong())
+            values = values == null ? new long[capacity] : Arrays.copyOf(values, capacity);
+        else
+            digests = digests == null ? new byte[capacity * width] : Arrays.copyOf(digests, capacity * width);
+    }
+
+    /**
+     * One-byte values, such as the labels of {@link DirectComparator}, are packed into the <code>byte[]</code>.
+     */
+    boolean isLong() {
+        return width > 1 && width <= 8;
+    }
+
+    private int capacity() {
+        return isLong() ? values.length : digests.length / width;
+    }
+
+    public void add(CRC crc) {
+        set(size, crc);
+    }
+
+    public void set(int index, CRC crc) {
+        set(index, crc, 0);
+    }
+
+    /**
+     * Stores the current value of one of the CRC's algorithms as the checksum of the given part. Must be called only
+     * once per calculated checksum, because message digests are reset when their value is read.
+     */
+    public void set(int index, CRC crc, int algorithm) {
+        ensureCapacity(index + 1);
+        missing.clear(index);
+        if (crc.isUniform()) {
+            uniform.set(index);
+            setValue(index, crc.getUniformByte());
+        } else {
+            uniform.clear(index);
+            if (isLong())
+                values[index] = crc.getValue(algorithm);
+            else
+                System.arraycopy(crc.getByteArray(algorithm), 0, digests, index * width, width);
+        }
+        size = Math.max(size, index + 1);
+    }
+
+    void setUniform(int index, int b) {
+        ensureCapacity(index + 1);
+        missing.clear(index);
+        uniform.set(index);
+        setValue(index, b & 0xFF);
+        size = Math.max(size, index + 1);
+    }
+
+    void setLong(int index, long value) {
+        ensureCapacity(index + 1);
+        missing.clear(index);
+        uniform.clear(index);
+        values[index] = value;
+        size = Math.max(size, index + 1);
+    }
+
+    void setDigest(int index, byte[] digest) {
+        ensureCapacity(index + 1);
+        missing.clear(index);
+        uniform.clear(index);
+        System.arraycopy(digest, 0, digests, index * width, width);
+        size = Math.max(size, index + 1);
+    }
+
+    void setByte(int index, int value) {
+        ensureCapacity(index + 1);
+        missing.clear(index);
+        uniform.clear(index);
+        Arrays.fill(digests, index * width, (index + 1) * width, (byte) 0);
+        digests[index * width] = (byte) value;
+        size = Math.max(size, index + 1);
+    }
 
-    public Checksums(List<String> checksums) {
-        this.checksums = checksums;
+    /**
+     * Flags a part as not read, so that it is not compared with the other files.
+     */
+    void setMissing(int index) {
+        ensureCapacity(index + 1);
+        missing.set(index);
+        size = Math.max(size, index + 1);
+    }
+
+    /**
+     * Returns true if no part within the size is missing.
+     */
+    public boolean isComplete() {
+        return missing.isEmpty();
+    }
+
+    private void setValue(int index, long value) {
+        if (isLong()) {
+            values[index] = value;
+        } else {
+            Arrays.fill(digests, index * width, (index + 1) * width, (byte) 0);
+            digests[index * width] = (byte) value;
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        int capacity = capacity();
+        if (minCapacity > capacity)
+            allocate(Math.max(minCapacity, capacity + (capacity >> 1)));
     }
 
     public int size() {
-        return checksums.size();
+        return size;
     }
 
     public boolean isValidIndex(int index) {
-        return index >= 0 && index < size();
+        return index >= 0 && index < size() && !missing.get(index);
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    boolean isUniform(int index) {
+        return uniform.get(index);
+    }
+
+    /**
+     * Returns the checksum of a part whose checksum is a <code>long</code>, or the repeated byte of a uniform part.
+     */
+    long getLong(int index) {
+        return isLong() ? values[index] : digests[index * width] & 0xFF;
+    }
+
+    byte[] getDigest(int index) {
+        return Arrays.copyOfRange(digests, index * width, (index + 1) * width);
     }
 
     public String get(int index) {
-        return isValidIndex(index) ? checksums.get(index) : null;
+        return isValidIndex(index) ? format(index) : null;
+    }
+
+    private String format(int index) {
+        if (uniform.get(index))
+            return "0x" + toHex(getLong(index), 2).toUpperCase();
+        if (isLong())
+            return toHex(values[index], width * 2).toUpperCase();
+        char[] hex = new char[width * 2];
+        for (int i = 0; i < width; i++) {
+            int b = digests[index * width + i] & 0xFF;
+            hex[i * 2] = HEX_DIGITS[b >>> 4];
+            hex[i * 2 + 1] = HEX_DIGITS[b & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    private static String toHex(long value, int digits) {
+        String hex = Long.toHexString(value);
+        StringBuilder sb = new StringBuilder(digits);
+        for (int i = hex.length(); i < digits; i++)
+            sb.append('0');
+        return sb.append(hex).toString();
+    }
+
+    /**
+     * Compares the checksums of two parts without formatting them. Both parts must exist.
+     */
+    public boolean equals(int index, Checksums other, int otherIndex) {
+        if (width != other.width || uniform.get(index) != other.uniform.get(otherIndex))
+            return false;
+        if (isLong())
+            return values[index] == other.values[otherIndex];
+        for (int i = 0; i < width; i++)
+            if (digests[index * width + i] != other.digests[otherIndex * width + i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Feeds all the checksums to the message digest, so that two columns whose checksums are all equal produce the
+     * same digest.
+     */
+    void digest(MessageDigest md) {
+        ByteBuffer value = ByteBuffer.allocate(8);
+        md.update(value.putInt(width).putInt(size).array());
+        for (int i = 0; i < size; i++) {
+            md.update((byte) ((uniform.get(i) ? 1 : 0) | (missing.get(i) ? 2 : 0)));
+            if (isLong() || uniform.get(i)) {
+                value.clear();
+                md.update(value.putLong(getLong(i)).array());
+            } else {
+                md.update(digests, i * width, width);
+            }
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        allocate(size);
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("width", width);
+        fields.put("size", size);
+        fields.put("values", values);
+        fields.put("digests", digests);
+        fields.put("uniform", uniform);
+        fields.put("missing", missing);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        List<?> hexValues = (List<?>) fields.get("checksums", null);
+        if (hexValues != null) {
+            readHexValues(hexValues);
+        } else {
+            width = fields.get("width", 0);
+            size = fields.get("size", 0);
+            values = (long[]) fields.get("values", null);
+            digests = (byte[]) fields.get("digests", null);
+            uniform = (BitSet) fields.get("uniform", null);
+            missing = (BitSet) fields.get("missing", null);
+        }
+        if (missing == null)
+            missing = new BitSet();
+    }
+
+    /**
+     * Converts the list of hex strings which was used by the earlier versions.
+     */
+    private void readHexValues(List<?> hexValues) {
+        width = 4;
+        for (Object hex : hexValues)
+            if (!isUniformHex((String) hex))
+                width = ((String) hex).length() / 2;
+        size = 0;
+        uniform = new BitSet();
+        allocate(Math.max(hexValues.size(), 1));
+        for (Object value : hexValues) {
+            String hex = (String) value;
+            if (isUniformHex(hex)) {
+                uniform.set(size);
+                setValue(size, Integer.parseInt(hex.substring(2), 16));
+            } else if (isLong()) {
+                values[size] = Long.parseLong(hex, 16);
+            } else {
+                for (int i = 0; i < width; i++)
+                    digests[size * width + i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+            }
+            size++;
+        }
+    }
+
+    private static boolean isUniformHex(String hex) {
+        return hex.startsWith("0x");
     }
 }
@@ -0,0 +1,125 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.io.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Compares copies of a file which are all on local disks by reading them side by side, without calculating any
+ * checksums. The files are memory mapped a window at a time, and each part of each file is compared with {@link
+ * ByteBuffer#mismatch} to the same part of the earlier files until an equal one is found. The copies whose part is
+ * equal form an equivalence class, and instead of a checksum each part only has the one-byte label of its class, the
+ * number of the class in the order of the files. A part which is the same in every file is labelled 0 in all of them.
+ * <p/>
+ * The result is one {@link ChecksumFile} per copy with the algorithm {@link #ALGORITHM}. They can be compared only
+ * with each other, because the labels are meaningful only among the files which were compared together.
+ */
+public class DirectComparator {
+    private final static Logger logger = Logger.getLogger(DirectComparator.class.getName());
+
+    public static final String ALGORITHM = "Direct";
+    public static final int MAX_FILES = 256;
+    public static final long WINDOW_LENGTH = 64 * 1024 * 1024;     // 64 MB
+
+    private DirectComparator() {
+    }
+
+    public static List<ChecksumFile> compare(List<File> files, long partLength) throws IOException {
+        return compare(files, partLength, new Throttle());
+    }
+
+    /**
+     * Compares the files, holding an {@link IOScheduler} permit of their devices until all of them have been read, and
+     * charging each mapped window to the throttle.
+     */
+    public static List<ChecksumFile> compare(List<File> files, long partLength, Throttle throttle) throws IOException {
+        if (files.isEmpty() || files.size() > MAX_FILES)
+            throw new IllegalArgumentException("Between 1 and " + MAX_FILES + " files can be compared, got " + files.size());
+        logger.log(Level.INFO, "DirectComparator.compare: {0} files, part length {1}", new Object[]{files.size(), partLength});
+
+        partLength = new FileDivider(files.get(0), partLength).getPartLength();
+        int count = files.size();
+        long[] lengths = new long[count];
+        Checksums[] labels = new Checksums[count];
+        FileChannel[] channels = new FileChannel[count];
+        long maxLength = 0;
+        List<IOScheduler.Permit> permits = IOScheduler.getDefault().acquireAll(files);
+        try {
+            for (int i = 0; i < count; i++) {
+                File file = files.get(i);
+                if (!file.isFile() || !file.canRead())
+                    throw new FileNotFoundException(file.toString());
+                channels[i] = new FileInputStream(file).getChannel();
+                lengths[i] = channels[i].size();
+                labels[i] = new Checksums(1, (int) ((lengths[i] + partLength - 1) / partLength));
+                maxLength = Math.max(maxLength, lengths[i]);
+            }
+            long windowLength = Math.max(1, WINDOW_LENGTH / partLength) * partLength;
+            for (long windowStart = 0; windowStart < maxLength; windowStart += windowLength)
+                compareWindow(channels, lengths, labels, windowStart, Math.min(windowLength, maxLength - windowStart), partLength,
+                        permits, throttle);
+        } finally {
+            for (IOScheduler.Permit permit : permits)
+                permit.release();
+            for (FileChannel channel : channels)
+                if (channel != null)
+                    channel.close();
+        }
+
+        List<ChecksumFile> result = new ArrayList<ChecksumFile>();
+        for (int i = 0; i < count; i++)
+            result.add(new ChecksumFile(labels[i], ALGORITHM, partLength, files.get(i), lengths[i]));
+        return result;
+    }
+
+    private static void compareWindow(FileChannel[] channels, long[] lengths, Checksums[] labels,
+                                      long windowStart, long windowLength, long partLength,
+                                      List<IOScheduler.Permit> permits, Throttle throttle) throws IOException {
+        int count = channels.length;
+        ByteBuffer[] windows = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            if (windowStart < lengths[i]) {
+                long length = Math.min(windowLength, lengths[i] - windowStart);
+                throttle.acquire(length);
+                windows[i] = channels[i].map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+                permits.get(i).transferred(length);
+            }
+        }
+
+        ByteBuffer[] parts = new ByteBuffer[count];
+        int[] representatives = new int[count];
+        int firstPart = (int) (windowStart / partLength);
+        for (long offset = 0; offset < windowLength; offset += partLength) {
+            int part = firstPart + (int) (offset / partLength);
+            int classes = 0;
+            for (int i = 0; i < count; i++) {
+                parts[i] = partOf(windows[i], (int) offset, (int) partLength);
+                if (parts[i] == null)
+                    continue;
+                int label = 0;
+                while (label < classes && parts[representatives[label]].mismatch(parts[i]) >= 0)
+                    label++;
+                if (label == classes)
+                    representatives[classes++] = i;
+                labels[i].setByte(part, label);
+            }
+        }
+    }
+
+    private static ByteBuffer partOf(ByteBuffer window, int offset, int partLength) {
+        if (window == null || offset >= window.capacity())
+            return null;
+        ByteBuffer part = window.duplicate();
+        part.position(offset);
+        part.limit(Math.min(offset + partLength, window.capacity()));
+        return part;
+    }
+}
@@ -8,47 +8,153 @@ import net.orfjackal.ccorr.crc.Buffer;
 import net.orfjackal.ccorr.crc.CRC;
 
 import java.io.*;
-import java.util.*;
 
 public class FileChecksumsCalculator {
     private FileDivider fileDivider;
     private CRC crc;
+    private File checkpointFile;
+    private long checkpointInterval;
+    private Checksums[] initialChecksums;
+    private int initialParts;
 
     public FileChecksumsCalculator(FileDivider fileDivider, CRC crc) {
         this.fileDivider = fileDivider;
         this.crc = crc;
     }
 
+    /**
+     * Makes the calculation save the completed parts to the checkpoint file every <code>checkpointInterval</code>
+     * milliseconds and when it is interrupted, and continue from the checkpoint if one exists for the same file.
+     * The checkpoint file is removed when the calculation is completed.
+     */
+    public void setCheckpointFile(File checkpointFile, long checkpointInterval) {
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Returns true if the calculation saves and continues from checkpoints. The calculators which complete the parts
+     * out of order do not.
+     */
+    public boolean supportsCheckpoints() {
+        return true;
+    }
+
+    /**
+     * Makes the calculation reuse the checksums of the first <code>completedParts</code> parts instead of reading
+     * them, for example when the file has been appended to after it was last calculated. The checksums must have
+     * been calculated with the same algorithms and part length.
+     */
+    public void setInitialChecksums(Checksums[] checksums, int completedParts) {
+        this.initialChecksums = checksums;
+        this.initialParts = completedParts;
+    }
+
     public ChecksumFile calculateChecksums() {
         try {
-            Checksums checksums = fillChecksums();
-            return new ChecksumFile(checksums, crc.getAlgorithm(), fileDivider.getPartLength(), fileDivider.getSourceFile(), fileDivider.getSourceFile().length());
+            Checksums[] checksums = fillChecksums();
+            return new ChecksumFile(checksums, getAlgorithms(), fileDivider.getPartLength(), fileDivider.getSourceFile(), fileDivider.getSourceFile().length());
         } catch (IOException e) {
             e.printStackTrace();
             return ChecksumFileFactory.EMPTY_DATA;
         }
     }
 
-    private Checksums fillChecksums() throws IOException {
-        List<String> checksums = new ArrayList<String>();
+    protected Checksums[] fillChecksums() throws IOException {
+        Checksums[] checksums = createChecksums();
+        int firstPart = 0;
+        ChecksumCheckpoint checkpoint = checkpointFile == null ? null : ChecksumCheckpoint.load(checkpointFile, fileDivider, getAlgorithms());
+        if (checkpoint != null) {
+            checksums = checkpoint.getChecksums();
+            firstPart = checkpoint.getCompletedParts();
+        } else if (initialChecksums != null) {
+            checksums = initialChecksums;
+            firstPart = initialParts;
+        }
+        long lastModified = fileDivider.getSourceFile().lastModified();
+        long nextCheckpoint = System.currentTimeMillis() + checkpointInterval;
+        int completedParts = firstPart;
+        boolean completed = false;
         try {
-            fileDivider.divide();
-            Buffer buffer = fileDivider.nextPart();
-            while (!Buffer.EOF.equals(buffer)) {
-                checksums.add(calculateChecksum(buffer));
-                buffer = fileDivider.nextPart();
+            fileDivider.divide(firstPart);
+            for (int part = firstPart; fileDivider.nextPart(); part++) {
+                updateProgress(part);
+                calculateChecksum(fileDivider, crc);
+                setChecksums(checksums, part, crc);
+                completedParts = part + 1;
+                if (checkpointFile != null && System.currentTimeMillis() >= nextCheckpoint) {
+                    ChecksumCheckpoint.save(checkpointFile, fileDivider, lastModified, getAlgorithms(), checksums, completedParts);
+                    nextCheckpoint = System.currentTimeMillis() + checkpointInterval;
+                }
             }
+            completed = true;
         } finally {
             fileDivider.close();
+            if (checkpointFile != null) {
+                if (completed)
+                    checkpointFile.delete();
+                else if (completedParts > firstPart)
+                    ChecksumCheckpoint.save(checkpointFile, fileDivider, lastModified, getAlgorithms(), checksums, completedParts);
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Feeds the current part of the divider to the CRC one chunk at a time.
+     */
+    static void calculateChecksum(FileDivider fileDivider, CRC crc) throws IOException {
+        crc.reset();
+        Buffer chunk = fileDivider.nextChunk();
+        while (!Buffer.EOF.equals(chunk)) {
+            crc.update(chunk);
+            chunk = fileDivider.nextChunk();
         }
-        return new Checksums(checksums);
     }
 
-    protected String calculateChecksum(Buffer buffer) {
-        return crc.calculateChecksum(buffer);
+    /**
+     * Creates one empty column of checksums for each of the algorithms.
+     */
+    protected Checksums[] createChecksums() {
+        Checksums[] checksums = new Checksums[crc.getAlgorithmCount()];
+        for (int i = 0; i < checksums.length; i++)
+            checksums[i] = new Checksums(crc.getDigestLength(i), fileDivider.getParts());
+        return checksums;
+    }
+
+    static void setChecksums(Checksums[] checksums, int part, CRC crc) {
+        for (int i = 0; i < checksums.length; i++)
+            checksums[i].set(part, crc, i);
+    }
+
+    /**
+     * Called with the number of parts that have been completed so far. The default implementation does nothing.
+     *
+     * @throws InterruptedIOException if the calculation has been cancelled
+     */
+    protected void updateProgress(int completedParts) throws IOException {
     }
 
     protected int getPartsCount() {
         return fileDivider.getParts();
     }
+
+    protected String[] getAlgorithms() {
+        String[] algorithms = new String[crc.getAlgorithmCount()];
+        for (int i = 0; i < algorithms.length; i++)
+            algorithms[i] = crc.getAlgorithm(i);
+        return algorithms;
+    }
+
+    protected Checksums[] getInitialChecksums() {
+        return initialChecksums;
+    }
+
+    protected int getInitialParts() {
+        return initialParts;
+    }
+
+    protected FileDivider getFileDivider() {
+        return fileDivider;
+    }
 }
@@ -5,25 +5,50 @@
 package net.orfjackal.ccorr.checksum;
 
 import net.orfjackal.ccorr.crc.Buffer;
-import net.orfjackal.ccorr.settings.Settings;
+import net.orfjackal.ccorr.io.*;
 
 import java.io.*;
 
 public class FileDivider {
     public static final int MAX_PART_SIZE = 10 * 1024 * 1024;    // 10 MB
     public static final int MIN_PART_SIZE = 1024;           // 1 KB
+    public static final int CHUNK_LENGTH = 64 * 1024;       // 64 KB
 
     private File sourceFile;
     private long partLength;
     private long sourceFileLength;
     private int parts;
     private int currentPart;
-    BufferedInputStream input;
+    private long chunkPosition;
+    private long partEnd;
+    private final PartSource source;
+    private IOScheduler.Permit permit;
+    private boolean ownsPermit;
+    private Throttle throttle = new Throttle();
 
     public FileDivider(File sourceFile, long partLength) {
+        this(sourceFile, partLength, new StreamPartSource());
+    }
+
+    public FileDivider(File sourceFile, long partLength, PartSource source) {
         this.sourceFile = sourceFile;
         this.partLength = constrainPartLength(partLength);
         this.sourceFileLength = this.sourceFile.length();
+        this.parts = calculateNumberOfParts();
+        this.source = source;
+    }
+
+    /**
+     * Creates a divider for reading the sub-parts of a part, which unlike normal parts may be shorter than {@link
+     * #MIN_PART_SIZE}. Uses positional reads, because only a small range of the file is read.
+     */
+    static FileDivider forSubParts(File sourceFile, long subPartLength) {
+        if (subPartLength <= 0)
+            throw new IllegalArgumentException("subPartLength: " + subPartLength);
+        FileDivider divider = new FileDivider(sourceFile, MIN_PART_SIZE, new ChannelPartSource());
+        divider.partLength = subPartLength;
+        divider.parts = divider.calculateNumberOfParts();
+        return divider;
     }
 
     private long constrainPartLength(long partLength) {
@@ -35,15 +60,25 @@ public class FileDivider {
         return partLength;
     }
 
-    public void divide() throws FileNotFoundException {
+    public void divide() throws IOException {
+        divide(0);
+    }
+
+    /**
+     * Prepares for reading the parts starting from the given part. Waits until the {@link IOScheduler} lets the file's
+     * device be read, and holds the device until {@link #close()}.
+     */
+    public void divide(int firstPart) throws IOException {
         if (!this.sourceFile.exists() || !this.sourceFile.canRead())
             throw new FileNotFoundException();
+        if (permit == null) {
+            permit = IOScheduler.getDefault().acquire(sourceFile);
+            ownsPermit = true;
+        }
         parts = calculateNumberOfParts();
-        input = new BufferedInputStream(
-                        new FileInputStream(this.sourceFile),
-                        Settings.getReadBufferLength()
-                );
-        currentPart = 0;
+        source.open(this.sourceFile);
+        currentPart = firstPart;
+        chunkPosition = partEnd = getStartOffset(firstPart);
     }
 
     private int calculateNumberOfParts() {
@@ -53,13 +88,73 @@ public class FileDivider {
         return parts;
     }
 
-    public Buffer nextPart() throws IOException {
-        if (currentPart == parts)
-            return Buffer.EOF;
+    /**
+     * Moves to the next part, whose data can then be read with {@link #nextChunk()}.
+     *
+     * @return false if there are no more parts
+     */
+    public boolean nextPart() {
+        if (currentPart >= parts)
+            return false;
+        chunkPosition = getStartOffset(currentPart);
+        partEnd = Math.min(chunkPosition + this.partLength, this.sourceFileLength);
         currentPart++;
-        byte[] buffer = new byte[(int) this.partLength];
-        int len = input.read(buffer);
-        return new Buffer(buffer, len);
+        return true;
+    }
+
+    /**
+     * Moves to the given part, skipping the parts in between, whose data can then be read with {@link #nextChunk()}.
+     * The parts are read in order only when the source is sequential, so skipping is useful only with a positional
+     * source such as {@link ChannelPartSource}.
+     *
+     * @return false if there is no such part
+     */
+    public boolean nextPart(int part) {
+        currentPart = part;
+        return nextPart();
+    }
+
+    /**
+     * Returns the next chunk of at most {@link #CHUNK_LENGTH} bytes of the current part, or {@link Buffer#EOF} when the
+     * whole part has been read. The chunks are views of a buffer which is reused, so the memory needed does not grow
+     * with the part length and reading does not create garbage.
+     */
+    public Buffer nextChunk() throws IOException {
+        if (chunkPosition >= partEnd)
+            return Buffer.EOF;
+        int length = (int) Math.min(CHUNK_LENGTH, partEnd - chunkPosition);
+        throttle.acquire(length);
+        Buffer chunk = source.read(chunkPosition, length);
+        if (chunk.getLength() < length)
+            partEnd = chunkPosition + chunk.getLength();
+        chunkPosition += chunk.getLength();
+        if (permit != null)
+            permit.transferred(chunk.getLength());
+        return chunk;
+    }
+
+    private long getStartOffset(int part) {
+        return part * this.partLength;
+    }
+
+    /**
+     * Makes the divider use a permit which the caller holds for the whole job, instead of waiting for one of its own
+     * in {@link #divide(int)}. The permit is not released by {@link #close()}.
+     */
+    void usePermit(IOScheduler.Permit permit) {
+        this.permit = permit;
+        this.ownsPermit = false;
+    }
+
+    /**
+     * Sets the throttle which limits the reading speed. It may be shared by the dividers of one job.
+     */
+    public void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+    }
+
+    public Throttle getThrottle() {
+        return throttle;
     }
 
     public int getParts() {
@@ -74,7 +169,17 @@ public class FileDivider {
         return sourceFile;
     }
 
+    /**
+     * Returns the length of the file when this divider was created. Parts appended after that are not read.
+     */
+    public long getSourceFileLength() {
+        return sourceFileLength;
+    }
+
     public void close() throws IOException {
-        input.close();
+        if (permit != null && ownsPermit)
+            permit.release();
+        permit = null;
+        source.close();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,112 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.crc.*;
+
+/**
+ * The checksums of 2, 4 and 8 consecutive parts of a file, derived from the checksums of the parts without reading
+ * the file. For CRC-32 and CRC-32C the CRCs of the parts are combined, so that each node is exactly the checksum
+ * which the file would have had with a longer part length. For the other algorithms a node is the hash of the
+ * checksums of its children, which can only be compared with the nodes of files that have the same part length.
+ */
+public class HashTree {
+    public static final int LEVELS = 3;
+
+    private final Checksums[] levels = new Checksums[LEVELS + 1];
+    private final boolean exact;
+
+    private HashTree(Checksums parts, boolean exact) {
+        this.levels[0] = parts;
+        this.exact = exact;
+    }
+
+    public static HashTree build(Checksums parts, String algorithm, long partLength, long fileLength) {
+        CrcCombiner combiner = CrcCombiner.forAlgorithm(algorithm);
+        CRCAlgorithm hash = combiner == null ? CRCAlgorithmFactory.getByName(algorithm) : null;
+        HashTree tree = new HashTree(parts, combiner != null);
+        for (int level = 1; level <= LEVELS; level++) {
+            Checksums children = tree.levels[level - 1];
+            long childLength = partLength << (level - 1);
+            Checksums nodes = new Checksums(children.getWidth(), (children.size() + 1) / 2);
+            for (int node = 0; node * 2 < children.size(); node++) {
+                if (combiner != null)
+                    combineChildren(nodes, node, children, childLength, fileLength, combiner);
+                else
+                    hashChildren(nodes, node, children, hash);
+            }
+            tree.levels[level] = nodes;
+        }
+        return tree;
+    }
+
+    private static void combineChildren(Checksums nodes, int node, Checksums children, long childLength, long fileLength,
+                                        CrcCombiner combiner) {
+        int first = node * 2;
+        int second = first + 1;
+        if (!children.isValidIndex(second)) {
+            copy(children, first, nodes, node);
+        } else if (children.isUniform(first) && children.isUniform(second) && children.getLong(first) == children.getLong(second)) {
+            nodes.setUniform(node, (int) children.getLong(first));
+        } else {
+            long crc1 = crcOf(children, first, childLength, combiner);
+            long length2 = Math.min(childLength, fileLength - second * childLength);
+            long crc2 = crcOf(children, second, length2, combiner);
+            nodes.setLong(node, combiner.combine(crc1, crc2, length2));
+        }
+    }
+
+    private static long crcOf(Checksums children, int child, long length, CrcCombiner combiner) {
+        if (children.isUniform(child))
+            return combiner.ofRepeatedByte((int) children.getLong(child), length);
+        return children.getLong(child);
+    }
+
+    private static void hashChildren(Checksums nodes, int node, Checksums children, CRCAlgorithm algorithm) {
+        algorithm.reset();
+        for (int child = node * 2; child < node * 2 + 2 && children.isValidIndex(child); child++) {
+            byte[] value = children.isLong() || children.isUniform(child) ? toBytes(children.getLong(child)) : children.getDigest(child);
+            algorithm.update(new byte[]{(byte) (children.isUniform(child) ? 1 : 0)}, 0, 1);
+            algorithm.update(value, 0, value.length);
+        }
+        if (nodes.isLong())
+            nodes.setLong(node, algorithm.getValue());
+        else
+            nodes.setDigest(node, algorithm.getByteArray());
+    }
+
+    private static void copy(Checksums from, int fromIndex, Checksums to, int toIndex) {
+        if (from.isUniform(fromIndex))
+            to.setUniform(toIndex, (int) from.getLong(fromIndex));
+        else if (from.isLong())
+            to.setLong(toIndex, from.getLong(fromIndex));
+        else
+            to.setDigest(toIndex, from.getDigest(fromIndex));
+    }
+
+    private static byte[] toBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the checksums of the nodes which cover 2<sup>level</sup> parts. Level 0 are the parts themselves.
+     */
+    public Checksums getLevel(int level) {
+        return levels[level];
+    }
+
+    /**
+     * Returns true if the nodes are the checksums of their whole range of bytes, in which case they may be compared
+     * with the checksums of files which were calculated with a longer part length.
+     */
+    public boolean isExact() {
+        return exact;
+    }
+}
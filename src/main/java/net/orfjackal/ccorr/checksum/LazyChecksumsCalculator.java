@@ -0,0 +1,52 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.crc.*;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * Calculates the checksums of only some of the parts of a file, reading them with positional reads, and flags the
+ * other parts as missing. The result is not complete, so no checkpoints are saved and it is not cached.
+ */
+public class LazyChecksumsCalculator extends MonitoredChecksumsCalculator {
+    private final CRC crc;
+    private final BitSet partsToRead;
+
+    public LazyChecksumsCalculator(FileDivider fileDivider, BitSet partsToRead, String... algorithms) {
+        this(fileDivider, new CRC(CRCAlgorithmFactory.getByNames(algorithms)), partsToRead);
+    }
+
+    private LazyChecksumsCalculator(FileDivider fileDivider, CRC crc, BitSet partsToRead) {
+        super(fileDivider, crc);
+        this.crc = crc;
+        this.partsToRead = partsToRead;
+    }
+
+    @Override
+    protected Checksums[] fillChecksums() throws IOException {
+        Checksums[] checksums = createChecksums();
+        FileDivider fileDivider = getFileDivider();
+        int parts = getPartsCount();
+        try {
+            fileDivider.divide();
+            for (int part = 0; part < parts; part++) {
+                if (partsToRead.get(part) && fileDivider.nextPart(part)) {
+                    updateProgress(part);
+                    calculateChecksum(fileDivider, crc);
+                    setChecksums(checksums, part, crc);
+                } else {
+                    for (Checksums column : checksums)
+                        column.setMissing(part);
+                }
+            }
+        } finally {
+            fileDivider.close();
+        }
+        return checksums;
+    }
+}
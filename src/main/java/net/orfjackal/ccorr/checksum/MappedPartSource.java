@@ -0,0 +1,65 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.crc.Buffer;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the parts from memory-mapped windows of the file. A single mapping is limited to 2 GB, so the file is mapped
+ * one window at a time and a new window is mapped when a part is outside the current one. The returned buffers are
+ * slices of the mapping, so the data is hashed straight from the page cache. The parts may be read in any order,
+ * but reading them in order maps each window only once.
+ */
+public class MappedPartSource implements PartSource {
+    public static final int WINDOW_SIZE = 64 * 1024 * 1024;    // 64 MB
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private long fileLength;
+    private MappedByteBuffer window;
+    private Buffer windowView;
+    private long windowStart;
+
+    public void open(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.fileLength = channel.size();
+        this.window = null;
+    }
+
+    public Buffer read(long position, int length) throws IOException {
+        length = (int) Math.max(0, Math.min(length, fileLength - position));
+        if (!isInWindow(position, length))
+            mapWindow(position, length);
+        return windowView.setRange((int) (position - windowStart), length);
+    }
+
+    private boolean isInWindow(long position, int length) {
+        return window != null
+                && position >= windowStart
+                && position + length <= windowStart + window.capacity();
+    }
+
+    private void mapWindow(long position, int length) throws IOException {
+        long size = Math.min(Math.max(WINDOW_SIZE, length), fileLength - position);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.max(0, size));
+        windowView = new Buffer(window);
+        windowStart = position;
+    }
+
+    public void close() throws IOException {
+        if (file != null) {
+            window = null;
+            windowView = null;
+            file.close();
+            file = null;
+            channel = null;
+        }
+    }
+}
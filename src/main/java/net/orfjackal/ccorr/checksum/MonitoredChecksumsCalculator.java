@@ -4,11 +4,11 @@
 
 package net.orfjackal.ccorr.checksum;
 
-import net.orfjackal.ccorr.crc.Buffer;
 import net.orfjackal.ccorr.crc.CRC;
 import net.orfjackal.ccorr.gui.ProgressMonitorRepository;
 
 import javax.swing.*;
+import java.io.*;
 import java.util.logging.Logger;
 
 public class MonitoredChecksumsCalculator extends FileChecksumsCalculator {
@@ -16,7 +16,6 @@ public class MonitoredChecksumsCalculator extends FileChecksumsCalculator {
 
     private ProgressMonitor monitor;
     private int lastMonitorValue;
-    private int currentPart;
 
     public MonitoredChecksumsCalculator(FileDivider fileDivider, CRC crc) {
         super(fileDivider, crc);
@@ -36,22 +35,17 @@ public class MonitoredChecksumsCalculator extends FileChecksumsCalculator {
             monitor.setMinimum(0);
             monitor.setMaximum(100);
             lastMonitorValue = -1;
-            currentPart = 0;
         }
     }
 
     @Override
-    protected String calculateChecksum(Buffer buffer) {
-        try {
-            lastMonitorValue = updateProgressMonitor(monitor, lastMonitorValue, currentPart * 100 / getPartsCount());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        currentPart++;
-        return super.calculateChecksum(buffer);
+    protected synchronized void updateProgress(int completedParts) throws IOException {
+        if (getPartsCount() == 0)
+            return;
+        lastMonitorValue = updateProgressMonitor(monitor, lastMonitorValue, completedParts * 100 / getPartsCount());
     }
 
-    private int updateProgressMonitor(ProgressMonitor monitor, int lastMonitorValue, int percentage) throws Exception {
+    private int updateProgressMonitor(ProgressMonitor monitor, int lastMonitorValue, int percentage) throws IOException {
         if (monitor != null) {
             if (percentage != lastMonitorValue) {
                 monitor.setProgress(percentage);
@@ -62,7 +56,7 @@ public class MonitoredChecksumsCalculator extends FileChecksumsCalculator {
 
             if (monitor.isCanceled()) {
                 logger.info("updateChecksums: Cancelled by user");
-                throw new Exception("Cancelled by user");
+                throw new InterruptedIOException("Cancelled by user");
             }
         }
         return lastMonitorValue;
@@ -0,0 +1,122 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.crc.*;
+import net.orfjackal.ccorr.io.IOScheduler;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calculates the checksums by splitting the file into ranges of parts which are hashed on a fork-join pool. Each
+ * task reads its parts with its own {@link FileDivider} over a {@link ChannelPartSource} and uses its own {@link CRC},
+ * so the tasks share nothing but the result array. The produced {@link ChecksumFile} is identical to the one
+ * calculated serially. Because the parts are not completed in order, no checkpoints are saved in this mode.
+ * <p/>
+ * The {@link IOScheduler} permit of the file's device is taken once for the whole file by the calling thread, and the
+ * tasks share it. So the workers of the pool never wait for the device, and do not hold up the other users of the
+ * pool, such as the comparisons, while another job is reading the same disk.
+ */
+public class ParallelChecksumsCalculator extends MonitoredChecksumsCalculator {
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final String[] algorithms;
+    private final ForkJoinPool pool;
+    private final AtomicInteger completedParts = new AtomicInteger();
+    private Checksums[] checksums;
+    private int threshold;
+    private IOScheduler.Permit permit;
+
+    public ParallelChecksumsCalculator(FileDivider fileDivider, String... algorithms) {
+        this(fileDivider, ForkJoinPool.commonPool(), algorithms);
+    }
+
+    public ParallelChecksumsCalculator(FileDivider fileDivider, ForkJoinPool pool, String... algorithms) {
+        super(fileDivider, new CRC(CRCAlgorithmFactory.getByNames(algorithms)));
+        this.algorithms = algorithms;
+        this.pool = pool;
+    }
+
+    @Override
+    public boolean supportsCheckpoints() {
+        return false;
+    }
+
+    @Override
+    protected Checksums[] fillChecksums() throws IOException {
+        File sourceFile = getFileDivider().getSourceFile();
+        if (!sourceFile.exists() || !sourceFile.canRead())
+            throw new FileNotFoundException();
+
+        int parts = getPartsCount();
+        int firstPart = 0;
+        if (getInitialChecksums() != null) {
+            checksums = getInitialChecksums();
+            firstPart = getInitialParts();
+        } else {
+            checksums = createChecksums();
+        }
+        threshold = Math.max(1, (parts - firstPart) / (pool.getParallelism() * TASKS_PER_THREAD));
+        completedParts.set(firstPart);
+
+        permit = IOScheduler.getDefault().acquire(sourceFile);
+        try {
+            updateProgress(firstPart);
+            pool.invoke(new PartRange(firstPart, parts));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            permit.release();
+        }
+        return checksums;
+    }
+
+    private void calculateChecksums(int fromPart, int toPart) throws IOException {
+        CRC crc = new CRC(CRCAlgorithmFactory.getByNames(algorithms));
+        FileDivider divider = new FileDivider(getFileDivider().getSourceFile(), getFileDivider().getPartLength(), new ChannelPartSource());
+        divider.setThrottle(getFileDivider().getThrottle());
+        divider.usePermit(permit);
+        try {
+            divider.divide(fromPart);
+            for (int part = fromPart; part < toPart && divider.nextPart(); part++) {
+                calculateChecksum(divider, crc);
+                synchronized (checksums) {
+                    setChecksums(checksums, part, crc);
+                }
+                updateProgress(completedParts.incrementAndGet());
+            }
+        } finally {
+            divider.close();
+        }
+    }
+
+    private class PartRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromPart;
+        private final int toPart;
+
+        public PartRange(int fromPart, int toPart) {
+            this.fromPart = fromPart;
+            this.toPart = toPart;
+        }
+
+        @Override
+        protected void compute() {
+            if (toPart - fromPart <= threshold) {
+                try {
+                    calculateChecksums(fromPart, toPart);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                int middle = (fromPart + toPart) >>> 1;
+                invokeAll(new PartRange(fromPart, middle), new PartRange(middle, toPart));
+            }
+        }
+    }
+}
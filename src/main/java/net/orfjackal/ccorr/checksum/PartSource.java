@@ -0,0 +1,22 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.crc.Buffer;
+
+import java.io.*;
+
+/**
+ * Reads the parts of a file for {@link FileDivider}. The returned {@link Buffer} is only valid until the next call
+ * to {@link #read}, which lets the implementations reuse their buffers.
+ */
+public interface PartSource {
+
+    void open(File file) throws IOException;
+
+    Buffer read(long position, int length) throws IOException;
+
+    void close() throws IOException;
+}
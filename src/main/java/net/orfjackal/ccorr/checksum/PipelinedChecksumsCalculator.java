@@ -0,0 +1,255 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.crc.*;
+import net.orfjackal.ccorr.io.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the file and hashes it at the same time, so that the disk does not wait for the CPU or the other way around.
+ * The calling thread reads the file sequentially into a fixed pool of buffers and passes them on bounded queues to
+ * one or more hasher threads, which return the buffers to the pool after hashing them. The chunks of a part always go
+ * to the same hasher, so each hasher sees its parts in order. The progress is reported by the hashers as they complete
+ * the parts. Because the hashers complete the parts out of order, no checkpoints are saved in this mode. The reader
+ * holds a permit of the {@link IOScheduler} for the file's device until the whole file has been read.
+ */
+public class PipelinedChecksumsCalculator extends MonitoredChecksumsCalculator {
+    public static final int BUFFER_LENGTH = 1024 * 1024;    // 1 MB
+    public static final int BUFFERS = 16;
+    public static final int DEFAULT_HASHERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static final Chunk END = new Chunk(0);
+
+    private final String[] algorithms;
+    private final int hashers;
+    private final int bufferLength;
+    private final AtomicInteger completedParts = new AtomicInteger();
+    private volatile IOException failure;
+    private Checksums[] checksums;
+
+    public PipelinedChecksumsCalculator(FileDivider fileDivider, String... algorithms) {
+        this(fileDivider, DEFAULT_HASHERS, algorithms);
+    }
+
+    public PipelinedChecksumsCalculator(FileDivider fileDivider, int hashers, String... algorithms) {
+        this(fileDivider, hashers, (int) Math.min(BUFFER_LENGTH, fileDivider.getPartLength()), algorithms);
+    }
+
+    PipelinedChecksumsCalculator(FileDivider fileDivider, int hashers, int bufferLength, String... algorithms) {
+        super(fileDivider, new CRC(CRCAlgorithmFactory.getByNames(algorithms)));
+        this.algorithms = algorithms;
+        this.hashers = hashers;
+        this.bufferLength = bufferLength;
+    }
+
+    @Override
+    public boolean supportsCheckpoints() {
+        return false;
+    }
+
+    @Override
+    protected Checksums[] fillChecksums() throws IOException {
+        File sourceFile = getFileDivider().getSourceFile();
+        if (!sourceFile.exists() || !sourceFile.canRead())
+            throw new FileNotFoundException();
+
+        int firstPart = 0;
+        if (getInitialChecksums() != null) {
+            checksums = getInitialChecksums();
+            firstPart = getInitialParts();
+        } else {
+            checksums = createChecksums();
+        }
+        completedParts.set(firstPart);
+        failure = null;
+        updateProgress(firstPart);
+
+        BlockingQueue<Chunk> freeChunks = new ArrayBlockingQueue<Chunk>(BUFFERS);
+        for (int i = 0; i < BUFFERS; i++)
+            freeChunks.add(new Chunk(bufferLength));
+        Hasher[] hasherThreads = new Hasher[hashers];
+        for (int i = 0; i < hasherThreads.length; i++) {
+            hasherThreads[i] = new Hasher(freeChunks, i);
+            hasherThreads[i].start();
+        }
+        try {
+            readParts(sourceFile, firstPart, freeChunks, hasherThreads);
+        } catch (IOException e) {
+            failed(e);
+        } finally {
+            for (Hasher hasher : hasherThreads)
+                putUninterruptibly(hasher.chunks, END);
+            for (Hasher hasher : hasherThreads)
+                joinUninterruptibly(hasher);
+        }
+        if (failure != null)
+            throw failure;
+        return checksums;
+    }
+
+    private void readParts(File sourceFile, int firstPart, BlockingQueue<Chunk> freeChunks, Hasher[] hasherThreads) throws IOException {
+        long partLength = getFileDivider().getPartLength();
+        long fileLength = getFileDivider().getSourceFileLength();
+        int parts = getPartsCount();
+        Throttle throttle = getFileDivider().getThrottle();
+        IOScheduler.Permit permit = IOScheduler.getDefault().acquire(sourceFile);
+        FileChannel channel = new FileInputStream(sourceFile).getChannel();
+        try {
+            channel.position(firstPart * partLength);
+            for (int part = firstPart; part < parts && failure == null; part++) {
+                long remaining = Math.min(partLength, fileLength - part * partLength);
+                boolean first = true;
+                while (remaining > 0 && failure == null) {
+                    Chunk chunk = take(freeChunks);
+                    throttle.acquire(Math.min(chunk.buffer.capacity(), remaining));
+                    int length = chunk.read(channel, (int) Math.min(chunk.buffer.capacity(), remaining));
+                    permit.transferred(length);
+                    remaining = length > 0 ? remaining - length : 0;
+                    chunk.part = part;
+                    chunk.first = first;
+                    chunk.last = remaining == 0;
+                    put(hasherThreads[part % hasherThreads.length].chunks, chunk);
+                    first = false;
+                }
+            }
+        } finally {
+            channel.close();
+            permit.release();
+        }
+    }
+
+    private void failed(IOException e) {
+        synchronized (this) {
+            if (failure == null)
+                failure = e;
+        }
+    }
+
+    private static Chunk take(BlockingQueue<Chunk> queue) throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static void put(BlockingQueue<Chunk> queue, Chunk chunk) throws IOException {
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Chunk> queue, Chunk chunk) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(chunk);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static class Chunk {
+        private final ByteBuffer buffer;
+        private int part;
+        private boolean first;
+        private boolean last;
+
+        public Chunk(int capacity) {
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        /**
+         * Reads up to <code>length</code> bytes, less only if the file ends.
+         */
+        public int read(FileChannel channel, int length) throws IOException {
+            buffer.clear();
+            buffer.limit(length);
+            while (buffer.hasRemaining())
+                if (channel.read(buffer) < 0)
+                    break;
+            buffer.flip();
+            return buffer.limit();
+        }
+    }
+
+    /**
+     * Hashes the chunks of every <code>hashers</code>th part. After a failure it only returns the chunks to the pool,
+     * so that the reader is not blocked before it notices the failure.
+     */
+    private class Hasher extends Thread {
+        private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<Chunk>(BUFFERS);
+        private final BlockingQueue<Chunk> freeChunks;
+        private final CRC crc = new CRC(CRCAlgorithmFactory.getByNames(algorithms));
+
+        public Hasher(BlockingQueue<Chunk> freeChunks, int index) {
+            super("Hasher " + index);
+            this.freeChunks = freeChunks;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Chunk chunk;
+                try {
+                    chunk = chunks.take();
+                } catch (InterruptedException e) {
+                    failed(new InterruptedIOException());
+                    continue;
+                }
+                if (chunk == END)
+                    return;
+                if (failure == null) {
+                    try {
+                        hash(chunk);
+                    } catch (IOException e) {
+                        failed(e);
+                    } catch (RuntimeException e) {
+                        failed(new IOException(e));
+                    }
+                }
+                freeChunks.add(chunk);
+            }
+        }
+
+        private void hash(Chunk chunk) throws IOException {
+            if (chunk.first)
+                crc.reset();
+            crc.update(chunk.buffer);
+            if (chunk.last) {
+                synchronized (checksums) {
+                    setChecksums(checksums, chunk.part, crc);
+                }
+                updateProgress(completedParts.incrementAndGet());
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.checksum;
+
+import net.orfjackal.ccorr.crc.Buffer;
+
+import java.io.*;
+
+/**
+ * Reads the file sequentially with an <code>InputStream</code>. The data is read straight into a reused array, so
+ * unlike with a <code>BufferedInputStream</code> it is copied only once. The parts must be read in order.
+ */
+public class StreamPartSource implements PartSource {
+    private InputStream input;
+    private long position;
+    private Buffer buffer = new Buffer(new byte[0], 0);
+
+    public void open(File file) throws IOException {
+        input = new FileInputStream(file);
+        position = 0;
+    }
+
+    public Buffer read(long position, int length) throws IOException {
+        skipTo(position);
+        if (buffer.getBytes().length < length)
+            buffer = new Buffer(new byte[length], 0);
+        byte[] bytes = buffer.getBytes();
+        int len = 0;
+        while (len < length) {
+            int n = input.read(bytes, len, length - len);
+            if (n < 0)
+                break;
+            len += n;
+        }
+        this.position += len;
+        return buffer.setRange(0, len);
+    }
+
+    private void skipTo(long position) throws IOException {
+        if (position < this.position)
+            throw new IOException("unable to read backwards from " + this.position + " to " + position);
+        while (this.position < position) {
+            long skipped = input.skip(position - this.position);
+            if (skipped <= 0)
+                throw new IOException("unable to start reading from the right position");
+            this.position += skipped;
+        }
+    }
+
+    public void close() throws IOException {
+        if (input != null) {
+            input.close();
+            input = null;
+        }
+    }
+}
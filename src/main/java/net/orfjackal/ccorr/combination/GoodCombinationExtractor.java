@@ -74,7 +74,7 @@ public class GoodCombinationExtractor {
     }
 
     private long findEndPosition(int difference, boolean isLastDifference, ChecksumFile checksumFile) {
-        return isLastDifference ? checksumFile.getSourceFileLength() : checksumFile.getEndOffset(difference);
+        return isLastDifference ? checksumFile.getSourceFileLength() : comparison.getEndOffset(difference);
     }
 
     private long findStartPosition(long nextStart, boolean isLastDifference, long end) {
@@ -4,6 +4,7 @@
 
 package net.orfjackal.ccorr.combination;
 
+import net.orfjackal.ccorr.io.*;
 import net.orfjackal.ccorr.settings.*;
 
 import java.io.*;
@@ -13,8 +14,15 @@ public class StreamFactory {
     private final static Logger logger = Logger.getLogger(SettingsLoader.class.getName());
 
     public static BufferedOutputStream openOutputStream(File file) {
+        return openOutputStream(file, new Throttle());
+    }
+
+    /**
+     * Opens a stream whose writes are limited by the throttle, which may be changed while the stream is used.
+     */
+    public static BufferedOutputStream openOutputStream(File file, Throttle throttle) {
         try {
-            return tryOpenOutputStream(file);
+            return tryOpenOutputStream(file, throttle);
         }
         catch (FileNotFoundException e) {
             logger.throwing("StreamFactory", "openOutputStream", e);
@@ -22,24 +30,31 @@ public class StreamFactory {
         return null;
     }
 
-    private static BufferedOutputStream tryOpenOutputStream(File file) throws FileNotFoundException {
+    private static BufferedOutputStream tryOpenOutputStream(File file, Throttle throttle) throws FileNotFoundException {
         return new BufferedOutputStream(
-                new FileOutputStream(file, false),
+                new ScheduledOutputStream(file, IOScheduler.getDefault(), throttle),
                 Settings.getWriteBufferLength());
     }
 
     public static BufferedInputStream openInputStream(File file) {
+        return openInputStream(file, new Throttle());
+    }
+
+    /**
+     * Opens a stream whose reads are limited by the throttle, which may be changed while the stream is used.
+     */
+    public static BufferedInputStream openInputStream(File file, Throttle throttle) {
         try {
-            return tryOpenInputStream(file);
+            return tryOpenInputStream(file, throttle);
         } catch (FileNotFoundException e) {
             logger.throwing("StreamFactory", "openInputStream", e);
         }
         return null;
     }
 
-    private static BufferedInputStream tryOpenInputStream(File file) throws FileNotFoundException {
+    private static BufferedInputStream tryOpenInputStream(File file, Throttle throttle) throws FileNotFoundException {
         return new BufferedInputStream(
-                new FileInputStream(file),
+                new ScheduledInputStream(file, IOScheduler.getDefault(), throttle),
                 Settings.getReadBufferLength());
     }
 }
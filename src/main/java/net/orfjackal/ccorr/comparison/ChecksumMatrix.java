@@ -0,0 +1,66 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.comparison;
+
+import java.util.Arrays;
+
+/**
+ * The items of the rows of a comparison in compact form. Each row has a small dictionary of its distinct items, and
+ * each file has a code at each row, which is the index of its item in the dictionary of the row, or -1 if the file
+ * has no checksum there. So the codes of two files are equal exactly when their checksums are equal.
+ */
+class ChecksumMatrix {
+    private static final ComparisonItem[] EMPTY_DICTIONARY = new ComparisonItem[0];
+
+    private final int files;
+    private final ComparisonItem[][] dictionaries;
+    private final short[] codes;
+
+    ChecksumMatrix(int rows, int files) {
+        this.files = files;
+        this.dictionaries = new ComparisonItem[rows][];
+        Arrays.fill(dictionaries, EMPTY_DICTIONARY);
+        this.codes = new short[rows * files];
+        Arrays.fill(codes, (short) -1);
+    }
+
+    /**
+     * Adds the item to the dictionary of the row and returns its code.
+     */
+    int addDistinct(int row, ComparisonItem item) {
+        ComparisonItem[] dictionary = Arrays.copyOf(dictionaries[row], dictionaries[row].length + 1);
+        dictionary[dictionary.length - 1] = item;
+        dictionaries[row] = dictionary;
+        return dictionary.length - 1;
+    }
+
+    /**
+     * Returns the code of the item at the row, or -1 if the item is not in the dictionary of the row.
+     */
+    int indexOf(int row, ComparisonItem item) {
+        ComparisonItem[] dictionary = dictionaries[row];
+        for (int code = 0; code < dictionary.length; code++)
+            if (dictionary[code] == item)
+                return code;
+        return -1;
+    }
+
+    int getDistinct(int row) {
+        return dictionaries[row].length;
+    }
+
+    void setCode(int row, int file, int code) {
+        codes[row * files + file] = (short) code;
+    }
+
+    int getCode(int row, int file) {
+        return codes[row * files + file];
+    }
+
+    ComparisonItem getItem(int row, int file) {
+        int code = getCode(row, file);
+        return code < 0 ? null : dictionaries[row][code];
+    }
+}
@@ -6,21 +6,43 @@ package net.orfjackal.ccorr.comparison;
 
 import net.orfjackal.ccorr.checksum.*;
 import net.orfjackal.ccorr.combination.*;
+import net.orfjackal.ccorr.crc.CRCAlgorithmFactory;
 
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.*;
 
 public class Comparison implements Serializable {
+    private static final long serialVersionUID = 2668549877420575202L;
     private final static Logger logger = Logger.getLogger(Comparison.class.getName());
 
+    /**
+     * The sub-part index of a row which is a whole part.
+     */
+    public static final int WHOLE_PART = -1;
+
     private String name;
     private final ChecksumFiles files;
     private ComparisonItems items;
     Similarity similarity;
     private boolean needsUpdating;
-    private List<Integer> partsThatDiffer = new ArrayList<Integer>();
+    /**
+     * The differing parts as saved by the earlier versions. Is converted to {@link #differingParts} when read.
+     */
+    private List<Integer> partsThatDiffer;
+    /**
+     * Is null in comparisons saved by the earlier versions.
+     */
+    private BitSet differingParts = new BitSet();
     private NumberOfDifferences numberOfDifferences;
+    /**
+     * The differing parts which have been split into sub-parts. Is null in comparisons saved by the earlier versions.
+     */
+    private Map<Integer, ZoomedPart> zoomedParts = new HashMap<Integer, ZoomedPart>();
+    private transient List<Integer> rowParts;
+    private transient List<Integer> rowSubParts;
+    private transient ChecksumMatrix matrix;
 
     public Comparison() {
         this.name = "";
@@ -30,53 +52,74 @@ public class Comparison implements Serializable {
         this.items = new ComparisonItems();
     }
 
+    /**
+     * Follows the progress of {@link #doCompare(ProgressListener)}, which calls it from the comparing threads.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called when the share of the parts which have been compared has grown by at least one permille.
+         */
+        void progressChanged(long comparedParts, long totalParts);
+
+        /**
+         * Returns true if the comparison should be stopped.
+         */
+        boolean isCancelled();
+    }
+
     public void doCompare() {
-        partsThatDiffer = new ArrayList<Integer>();
+        doCompare(null);
+    }
+
+    /**
+     * Compares the files, splitting the parts between the threads of the common fork-join pool. Returns false if the
+     * listener cancelled the comparison, in which case the results of the previous comparison are kept. Does nothing
+     * if the results are up to date, because adding and removing files updates them incrementally when possible.
+     */
+    public boolean doCompare(ProgressListener listener) {
+        if (isUpToDate()) {
+            logComparison();
+            return true;
+        }
+        DifferenceFinder finder = null;
+        if (files.size() > 1) {
+            finder = new DifferenceFinder(files, listener);
+            if (!finder.find(ForkJoinPool.commonPool())) {
+                logger.info("doCompare: Cancelled");
+                return false;
+            }
+        }
+        if (needsUpdating)
+            getZoomedParts().clear();
+        differingParts = new BitSet();
+        rowsChanged();
         if (files.size() > 1)
-            compareMultipleFiles();
+            compareMultipleFiles(finder);
         else if (files.size() == 1)
             compareSingleFile();
         else if (files.size() == 0)
             compareNoFile();
         logComparison();
+        return true;
     }
 
-    private void compareMultipleFiles() {
-        numberOfDifferences = new NumberOfDifferences(files.size());
-        compareEachFilesPair();
+    private void compareMultipleFiles(DifferenceFinder finder) {
+        numberOfDifferences = finder.getNumberOfDifferences();
+        differingParts = finder.getDifferingParts();
         storeComparisonDataToList();
         similarity = new SimilarityCalculator(files, numberOfDifferences).calculate();
         needsUpdating = false;
     }
 
-    private void compareEachFilesPair() {
-        for (int i = 0; i < (files.size() - 1); i++)
-            for (int j = (i + 1); j < files.size(); j++)
-                compareFiles(numberOfDifferences, i, j);
-    }
-
-    private void compareFiles(NumberOfDifferences numberOfDifferences, int file1, int file2) {
-        int shortest = files.findShorterFileParts(file1, file2);
-        for (int part = 0; part < shortest; part++)
-            if (files.isPartPresentInBothFiles(part, file1, file2))
-                if (!files.arePartsEquals(part, file1, file2))
-                    addDifference(numberOfDifferences, file1, file2, part);
-    }
-
-    private void addDifference(NumberOfDifferences numberOfDifferences, int file1, int file2, int part) {
-        numberOfDifferences.add(file1, file2);
-        if (!partsThatDiffer.contains(part))
-            partsThatDiffer.add(part);
-    }
-
     private void storeComparisonDataToList() {
-        for (Integer part : partsThatDiffer)
+        for (int part = differingParts.nextSetBit(0); part >= 0; part = differingParts.nextSetBit(part + 1))
             storePartComparisonData(part);
     }
 
     private void storePartComparisonData(Integer part) {
         for (int f = 0; f < files.size(); f++) {
-            String checksum = files.get(f).getChecksum(part);
+            String checksum = files.getChecksum(f, part);
             addComparisonItem(part, checksum);
         }
     }
@@ -90,6 +133,7 @@ public class Comparison implements Serializable {
 
     private void compareSingleFile() {
         items = new ComparisonItems();
+        numberOfDifferences = new NumberOfDifferences(1);
         similarity = new Similarity(1);
         similarity.set(0, 0, 1.0);
         needsUpdating = false;
@@ -97,6 +141,7 @@ public class Comparison implements Serializable {
 
     private void compareNoFile() {
         items = new ComparisonItems();
+        numberOfDifferences = new NumberOfDifferences(0);
         similarity = new Similarity(0);
         needsUpdating = false;
     }
@@ -105,10 +150,165 @@ public class Comparison implements Serializable {
         logger.info(getDifferences() > 100 ? "doCompare:\n[over 100 differences, output hidden]" : "doCompare:\n" + this);
     }
 
+    /**
+     * Returns the number of rows, which is the number of differing parts, except that each zoomed part is replaced
+     * by its differing sub-parts.
+     */
     public int getDifferences() {
         if (needsUpdating)
             return -1;
-        return partsThatDiffer.size();
+        return getRowParts().size();
+    }
+
+    private List<Integer> getRowParts() {
+        if (rowParts == null)
+            buildRows();
+        return rowParts;
+    }
+
+    private void buildRows() {
+        List<Integer> parts = new ArrayList<Integer>();
+        List<Integer> subParts = new ArrayList<Integer>();
+        for (int part = differingParts.nextSetBit(0); part >= 0; part = differingParts.nextSetBit(part + 1)) {
+            ZoomedPart zoomed = getZoomedParts().get(part);
+            if (zoomed == null) {
+                parts.add(part);
+                subParts.add(WHOLE_PART);
+            } else {
+                for (Integer subPart : zoomed.getSubPartsThatDiffer()) {
+                    parts.add(part);
+                    subParts.add(subPart);
+                }
+            }
+        }
+        rowSubParts = subParts;
+        rowParts = parts;
+    }
+
+    private void rowsChanged() {
+        rowParts = null;
+        matrix = null;
+    }
+
+    private ChecksumMatrix getMatrix() {
+        if (matrix == null)
+            matrix = buildMatrix();
+        return matrix;
+    }
+
+    /**
+     * Encodes the items of each row. The codes of a whole part are found by comparing the binary checksums of the
+     * files, so only one checksum per distinct item needs to be formatted for finding the item.
+     */
+    private ChecksumMatrix buildMatrix() {
+        List<Integer> parts = getRowParts();
+        ChecksumMatrix matrix = new ChecksumMatrix(parts.size(), files.size());
+        int[] representatives = new int[files.size()];
+        for (int row = 0; row < parts.size(); row++) {
+            if (rowSubParts.get(row) == WHOLE_PART)
+                encodePart(matrix, row, parts.get(row), representatives);
+            else
+                encodeSubPart(matrix, row, getZoomedParts().get(parts.get(row)), rowSubParts.get(row));
+        }
+        return matrix;
+    }
+
+    private void encodePart(ChecksumMatrix matrix, int row, int part, int[] representatives) {
+        for (int file = 0; file < files.size(); file++) {
+            if (!files.hasPart(file, part))
+                continue;
+            int code = 0;
+            while (code < matrix.getDistinct(row) && !files.arePartsEquals(part, representatives[code], file))
+                code++;
+            if (code == matrix.getDistinct(row)) {
+                ComparisonItem item = items.find(part, files.getChecksum(file, part));
+                if (item == null)
+                    continue;
+                representatives[code] = file;
+                matrix.addDistinct(row, item);
+            }
+            matrix.setCode(row, file, code);
+        }
+    }
+
+    private void encodeSubPart(ChecksumMatrix matrix, int row, ZoomedPart zoomed, int subPart) {
+        for (int file = 0; file < files.size(); file++) {
+            ComparisonItem item = zoomed.getItem(subPart, file);
+            if (item == null)
+                continue;
+            int code = matrix.indexOf(row, item);
+            matrix.setCode(row, file, code < 0 ? matrix.addDistinct(row, item) : code);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (differingParts == null) {
+            differingParts = new BitSet();
+            if (partsThatDiffer != null)
+                for (Integer part : partsThatDiffer)
+                    differingParts.set(part);
+            partsThatDiffer = null;
+        }
+    }
+
+    private Map<Integer, ZoomedPart> getZoomedParts() {
+        if (zoomedParts == null)
+            zoomedParts = new HashMap<Integer, ZoomedPart>();
+        return zoomedParts;
+    }
+
+    /**
+     * Returns the index of the sub-part of a zoomed part, or {@link #WHOLE_PART} if the row is a whole part.
+     */
+    public int getSubPart(int difference) {
+        if (!isValidDifferenceIndex(difference))
+            return WHOLE_PART;
+        getRowParts();
+        return rowSubParts.get(difference);
+    }
+
+    /**
+     * Re-reads the byte range of a differing part from each file, calculates the checksums of its sub-parts in
+     * parallel, and replaces the row of the part with one row per differing sub-part. The sub-part length must divide
+     * the part length. Returns false if the row is already a sub-part, the files could not be read, or no checksums can
+     * be calculated with the compared algorithm (see {@link #canCalculateChecksums}).
+     */
+    public boolean zoom(int difference, long subPartLength) {
+        if (!isGoodIndex(difference, 0) || getSubPart(difference) != WHOLE_PART || !canCalculateChecksums()
+                || subPartLength <= 0 || getPartLength() % subPartLength != 0)
+            return false;
+        int part = getPart(difference);
+        try {
+            getZoomedParts().put(part, ZoomedPart.calculate(files, part, subPartLength));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Comparison.zoom: Unable to read part " + part, e);
+            return false;
+        }
+        rowsChanged();
+        logger.info("Comparison.zoom: Part " + part + " split into parts of " + subPartLength + " bytes.");
+        return true;
+    }
+
+    /**
+     * Returns the longest sub-part length which divides the part length and splits a part into at least the given
+     * number of sub-parts, so that it can be passed to {@link #zoom}.
+     */
+    public long getSubPartLength(int subParts) {
+        long partLength = getPartLength();
+        long subPartLength = Math.max(1, partLength / subParts);
+        while (partLength % subPartLength != 0)
+            subPartLength--;
+        return subPartLength;
+    }
+
+    /**
+     * Returns true if the checksums of the files can be calculated again with the compared algorithm, which zooming
+     * and adding copies lazily need. The labels of the copies compared with {@link DirectComparator} are not
+     * checksums, so they can not.
+     */
+    public boolean canCalculateChecksums() {
+        return files.size() > 0 && CRCAlgorithmFactory.isSupported(getAlgorithm());
     }
 
     public int getFilesCount() {
@@ -118,19 +318,28 @@ public class Comparison implements Serializable {
     public int getPart(int difference) {
         if (!isValidDifferenceIndex(difference))
             return -1;
-        return partsThatDiffer.get(difference);
+        return getRowParts().get(difference);
     }
 
     private boolean isValidDifferenceIndex(int difference) {
-        return difference >= 0 && difference < partsThatDiffer.size();
+        return difference >= 0 && difference < getRowParts().size();
     }
 
     public ComparisonItem getItem(int difference, int file) {
         if (!this.isGoodIndex(difference, file)) {
             return null;
         }
-        int part = partsThatDiffer.get(difference);
-        return items.find(part, files.get(file).getChecksum(part));
+        return getMatrix().getItem(difference, file);
+    }
+
+    /**
+     * Returns a small number which is the same for the files whose checksums are equal at the row, or -1 if the file
+     * has no checksum there. The numbers of a row are less than the number of files.
+     */
+    int getChecksumCode(int difference, int file) {
+        if (!this.isGoodIndex(difference, file))
+            return -1;
+        return getMatrix().getCode(difference, file);
     }
 
     public boolean isGoodIndex(int difference, int file) {
@@ -148,11 +357,13 @@ public class Comparison implements Serializable {
     public long getStartOffset(int difference) {
         if (!this.isGoodIndex(difference, 0))
             throw new IllegalArgumentException();
+        if (getSubPart(difference) != WHOLE_PART)
+            return getZoomedParts().get(getPart(difference)).getStartOffset(getSubPart(difference));
         long offset = -1;
         for (int i = 0; i < files.size(); i++) {
             ComparisonItem item = getItem(difference, i);
-            if (item != null && files.get(i).getStartOffset(item.getPart()) > offset)
-                offset = files.get(i).getStartOffset(item.getPart());
+            if (item != null && files.getStartOffset(i, item.getPart()) > offset)
+                offset = files.getStartOffset(i, item.getPart());
         }
         return offset;
     }
@@ -160,11 +371,13 @@ public class Comparison implements Serializable {
     public long getEndOffset(int difference) {
         if (!this.isGoodIndex(difference, 0))
             throw new IllegalArgumentException();
+        if (getSubPart(difference) != WHOLE_PART)
+            return getZoomedParts().get(getPart(difference)).getEndOffset(getSubPart(difference));
         long offset = -1;
         for (int i = 0; i < files.size(); i++) {
             ComparisonItem item = getItem(difference, i);
-            if (item != null && files.get(i).getEndOffset(item.getPart()) > offset)
-                offset = files.get(i).getEndOffset(item.getPart());
+            if (item != null && files.getEndOffset(i, item.getPart()) > offset)
+                offset = files.getEndOffset(i, item.getPart());
         }
         return offset;
     }
@@ -201,15 +414,200 @@ public class Comparison implements Serializable {
         logger.log(Level.INFO, "Comparison.setName: Set name to \"{0}\".", name);
     }
 
-    public void addFile(ChecksumFile file) {
-        if (files.add(file))
+    /**
+     * Adds the file to the comparison. If the comparison is up to date, only the new file is compared with the
+     * others: at the parts where the files were equal with one of them, and at the differing parts with each of them.
+     * Otherwise the files are compared when {@link #doCompare} is next called.
+     *
+     * @return false if the file can not be compared with the files of the comparison, in which case it is not added
+     */
+    public boolean addFile(ChecksumFile file) {
+        int columns = files.size();
+        String algorithm = files.getAlgorithm();
+        long partLength = files.getPartLength();
+        boolean upToDate = isUpToDate();
+        if (!files.add(file))
+            return false;
+        if (files.size() == columns)
+            return true;
+        if (upToDate && columns > 0 && algorithm.equals(files.getAlgorithm()) && partLength == files.getPartLength())
+            addColumn(columns);
+        else
+            this.needsUpdating = true;
+        return true;
+    }
+
+    private boolean isUpToDate() {
+        return !needsUpdating && numberOfDifferences != null && numberOfDifferences.size() == files.size();
+    }
+
+    private void addColumn(int added) {
+        numberOfDifferences = numberOfDifferences.withSize(files.size());
+        int reference = 0;
+        for (int file = 1; file < added; file++)
+            if (files.getParts(file) > files.getParts(reference))
+                reference = file;
+        int parts = files.getParts(added);
+        int bothParts = Math.min(parts, files.getParts(reference));
+        int treeLevels = files.getCommonTreeLevels(reference, added);
+        int part = 0;
+        while (part < parts) {
+            int level = treeLevels;
+            while (level > 0 && (part % (1 << level) != 0 || part + (1 << level) > bothParts))
+                level--;
+            while (level > 0 && !isEqualNode(level, part, reference, added))
+                level--;
+            if (level == 0)
+                compareWithEarlierFiles(part, added);
+            part += 1 << level;
+        }
+        for (Map.Entry<Integer, ZoomedPart> entry : new ArrayList<Map.Entry<Integer, ZoomedPart>>(getZoomedParts().entrySet())) {
+            try {
+                entry.setValue(entry.getValue().withFile(files, added));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Comparison.addFile: Unable to read part " + entry.getKey(), e);
+                getZoomedParts().remove(entry.getKey());
+            }
+        }
+        updateAfterColumnsChanged();
+        logger.info("Comparison.addFile: File #" + (added + 1) + " compared incrementally.");
+    }
+
+    /**
+     * Returns true if the node of the new file is equal to the node of the reference file and none of the parts under
+     * it differ, in which case the new file is equal to all the files at those parts.
+     */
+    private boolean isEqualNode(int level, int part, int reference, int added) {
+        int next = differingParts.nextSetBit(part);
+        return (next < 0 || next >= part + (1 << level)) && files.areNodesEqual(level, part >> level, reference, added);
+    }
+
+    private void compareWithEarlierFiles(int part, int added) {
+        if (!files.hasPart(added, part))
+            return;
+        if (differingParts.get(part)) {
+            for (int file = 0; file < added; file++)
+                if (files.hasPart(file, part) && !files.arePartsEquals(part, file, added))
+                    numberOfDifferences.add(file, added);
+            addComparisonItem(part, files.getChecksum(added, part));
+            return;
+        }
+        int representative = 0;
+        while (representative < added && !files.hasPart(representative, part))
+            representative++;
+        if (representative == added || files.arePartsEquals(part, representative, added))
+            return;
+        for (int file = 0; file < added; file++)
+            if (files.hasPart(file, part))
+                numberOfDifferences.add(file, added);
+        differingParts.set(part);
+        storePartComparisonData(part);
+    }
+
+    private void updateAfterColumnsChanged() {
+        similarity = new SimilarityCalculator(files, numberOfDifferences).calculate();
+        rowsChanged();
+    }
+
+    /**
+     * Replaces a file with a newer version of it, for example when following a file which is still being downloaded.
+     * Unlike removing and adding the file, this keeps the file in the same column and keeps the marks of its parts.
+     */
+    public boolean replaceFile(ChecksumFile oldFile, ChecksumFile newFile) {
+        if (files.replace(oldFile, newFile)) {
             this.needsUpdating = true;
+            return true;
+        }
+        return false;
     }
 
+    /**
+     * Calculates the checksums of a further copy of the compared files, reading only the parts where they do not
+     * already agree. The returned file needs to be added with {@link #addFile}.
+     */
+    public ChecksumFile createLazyChecksumFile(File file) {
+        return ChecksumFileFactory.createChecksumFileLazily(file, files);
+    }
+
+    /**
+     * Sets whether identical files are collapsed into one column, so that they are compared and counted as one file.
+     * {@link #getMultiplicity} tells how many files a column stands for.
+     */
+    public void setCollapseIdenticalFiles(boolean collapse) {
+        if (collapse != files.isCollapsingIdentical()) {
+            files.setCollapseIdentical(collapse);
+            this.needsUpdating = true;
+            logger.info("Comparison.setCollapseIdenticalFiles: " + collapse);
+        }
+    }
+
+    public boolean isCollapsingIdenticalFiles() {
+        return files.isCollapsingIdentical();
+    }
+
+    public int getMultiplicity(int file) {
+        return files.getMultiplicity(file);
+    }
+
+    /**
+     * Removes the file from the comparison. If the comparison is up to date, only the differing parts which the file
+     * has are compared again. Otherwise the files are compared when {@link #doCompare} is next called.
+     */
     public void removeFile(int index) {
+        if (!files.isValidFileIndex(index)) {
+            this.needsUpdating = true;
+            return;
+        }
+        String algorithm = files.getAlgorithm();
+        long partLength = files.getPartLength();
+        boolean upToDate = isUpToDate();
+        BitSet touched = new BitSet();
+        for (int part = differingParts.nextSetBit(0); part >= 0; part = differingParts.nextSetBit(part + 1))
+            if (files.hasPart(index, part))
+                touched.set(part);
         files.remove(index);
         logger.info("Comparison.removeFile: File #" + (index + 1) + " removed.");
-        this.needsUpdating = true;
+        if (upToDate && files.size() > 1 && algorithm.equals(files.getAlgorithm()) && partLength == files.getPartLength())
+            removeColumn(index, touched);
+        else
+            this.needsUpdating = true;
+    }
+
+    private void removeColumn(int removed, BitSet touched) {
+        numberOfDifferences = numberOfDifferences.withoutFile(removed);
+        for (int part = touched.nextSetBit(0); part >= 0; part = touched.nextSetBit(part + 1)) {
+            if (isStillDiffering(part)) {
+                items.retain(part, checksumsOf(part));
+            } else {
+                differingParts.clear(part);
+                getZoomedParts().remove(part);
+                items.retain(part, Collections.<String>emptySet());
+            }
+        }
+        for (Map.Entry<Integer, ZoomedPart> entry : getZoomedParts().entrySet())
+            entry.setValue(entry.getValue().withoutFile(removed));
+        updateAfterColumnsChanged();
+    }
+
+    private Set<String> checksumsOf(int part) {
+        Set<String> checksums = new HashSet<String>();
+        for (int file = 0; file < files.size(); file++)
+            if (files.hasPart(file, part))
+                checksums.add(files.getChecksum(file, part));
+        return checksums;
+    }
+
+    private boolean isStillDiffering(int part) {
+        int first = -1;
+        for (int file = 0; file < files.size(); file++) {
+            if (!files.hasPart(file, part))
+                continue;
+            if (first < 0)
+                first = file;
+            else if (!files.arePartsEquals(part, first, file))
+                return true;
+        }
+        return false;
     }
 
     public static GoodCombination createGoodCombination(Comparison comparison) {
@@ -277,15 +675,12 @@ public class Comparison implements Serializable {
 
     private String differenceToString(int index) {
         int part = getPart(index);
+        int subPart = getSubPart(index);
         StringBuilder sb = new StringBuilder();
-        sb.append(String.format("part %d: ", part));
-        String offsets = "";
-        for (int j = 0; j < files.size(); j++) {
+        sb.append(subPart == WHOLE_PART ? String.format("part %d: ", part) : String.format("part %d.%d: ", part, subPart));
+        for (int j = 0; j < files.size(); j++)
             sb.append(String.format("\t%s (%s) ", getChecksum(index, j), getMark(index, j)));
-            if (files.get(j).hasPart(part))
-                offsets = String.format("\t%d - %d\n", files.get(j).getStartOffset(part), files.get(j).getEndOffset(part));
-        }
-        sb.append(offsets);
+        sb.append(String.format("\t%d - %d\n", getStartOffset(index), getEndOffset(index)));
         return sb.toString();
     }
 }
\ No newline at end of file
@@ -4,21 +4,85 @@
 
 package net.orfjackal.ccorr.comparison;
 
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
 
+/**
+ * The items of the differing parts, indexed by part. Each part has a small bucket with one item per distinct checksum
+ * in the order in which they were added, so finding an item takes constant time. The items are saved as one list,
+ * in the same form as the earlier versions saved them.
+ */
 public class ComparisonItems implements Serializable {
-    private final List<ComparisonItem> items = new ArrayList<ComparisonItem>();
+    private static final long serialVersionUID = -5290516194609596703L;
 
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("items", List.class),
+    };
+
+    private static final ComparisonItem[] EMPTY_BUCKET = new ComparisonItem[0];
+
+    private transient Map<Integer, ComparisonItem[]> buckets;
+
+    public ComparisonItems() {
+        this.buckets = new HashMap<Integer, ComparisonItem[]>();
+    }
+
+    /**
+     * Adds the item to the bucket of its part. An item without a checksum is not added, because no checksum finds it.
+     */
     public void add(ComparisonItem item) {
-        items.add(item);
+        if (item.getChecksum().length() == 0)
+            return;
+        ComparisonItem[] bucket = bucketOf(item.getPart());
+        bucket = Arrays.copyOf(bucket, bucket.length + 1);
+        bucket[bucket.length - 1] = item;
+        buckets.put(item.getPart(), bucket);
     }
 
     public ComparisonItem find(int part, String checksum) {
-        for (ComparisonItem item : items) {
-            if (item.getPart() == part && item.getChecksum().equals(checksum))
+        if (checksum == null)
+            return null;
+        for (ComparisonItem item : bucketOf(part)) {
+            if (item.getChecksum().equals(checksum))
                 return item;
         }
         return null;
     }
+
+    /**
+     * Removes the items of the part whose checksums are not among the given checksums.
+     */
+    public void retain(int part, Collection<String> checksums) {
+        List<ComparisonItem> kept = new ArrayList<ComparisonItem>();
+        for (ComparisonItem item : bucketOf(part))
+            if (checksums.contains(item.getChecksum()))
+                kept.add(item);
+        if (kept.isEmpty())
+            buckets.remove(part);
+        else
+            buckets.put(part, kept.toArray(new ComparisonItem[kept.size()]));
+    }
+
+    private ComparisonItem[] bucketOf(int part) {
+        ComparisonItem[] bucket = buckets.get(part);
+        return bucket == null ? EMPTY_BUCKET : bucket;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        List<ComparisonItem> items = new ArrayList<ComparisonItem>();
+        for (ComparisonItem[] bucket : buckets.values())
+            items.addAll(Arrays.asList(bucket));
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("items", items);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        buckets = new HashMap<Integer, ComparisonItem[]>();
+        List<?> items = (List<?>) fields.get("items", null);
+        if (items != null)
+            for (Object item : items)
+                add((ComparisonItem) item);
+    }
 }
@@ -0,0 +1,214 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.comparison;
+
+import net.orfjackal.ccorr.checksum.*;
+
+import java.util.BitSet;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Finds the differing parts of the files and counts the differences of each pair of files. The part range is split
+ * into ranges on a fork-join pool, each of which collects its own differing parts and {@link NumberOfDifferences},
+ * and the results of the ranges are merged. The ranges start at hash tree node boundaries, so that no tree node
+ * is split between two ranges.
+ * <p/>
+ * Each range goes through its parts once, comparing all the files at each part. The parts under a hash tree node are
+ * skipped when the nodes of all the files which cover the node are equal. At the other parts the files are grouped
+ * by their checksum, and each pair of files in different groups differs.
+ */
+class DifferenceFinder {
+    private static final int TASKS_PER_THREAD = 4;
+    private static final int MIN_PARTS_PER_TASK = 1024;
+    private static final int PROGRESS_INTERVAL = 4096;
+
+    private final ChecksumFiles files;
+    private final Comparison.ProgressListener listener;
+    private final int[] parts;
+    private final int longest;
+    private final int treeLevels;
+    private final AtomicLong comparedParts = new AtomicLong();
+    private final AtomicInteger reportedPermille = new AtomicInteger(-1);
+    private volatile boolean cancelled;
+    private int threshold;
+
+    private BitSet differingParts;
+    private NumberOfDifferences numberOfDifferences;
+
+    DifferenceFinder(ChecksumFiles files, Comparison.ProgressListener listener) {
+        this.files = files;
+        this.listener = listener;
+        this.parts = new int[files.size()];
+        int longest = 0;
+        for (int file = 0; file < parts.length; file++) {
+            parts[file] = files.getParts(file);
+            longest = Math.max(longest, parts[file]);
+        }
+        this.longest = longest;
+        this.treeLevels = commonTreeLevels(files);
+    }
+
+    private static int commonTreeLevels(ChecksumFiles files) {
+        int levels = HashTree.LEVELS;
+        for (int i = 0; i < (files.size() - 1); i++)
+            for (int j = (i + 1); j < files.size(); j++)
+                levels = Math.min(levels, files.getCommonTreeLevels(i, j));
+        return levels;
+    }
+
+    /**
+     * Returns false if the listener cancelled the comparison, in which case there are no results.
+     */
+    boolean find(ForkJoinPool pool) {
+        int nodeParts = 1 << treeLevels;
+        threshold = Math.max(MIN_PARTS_PER_TASK, longest / (pool.getParallelism() * TASKS_PER_THREAD));
+        threshold = (threshold + nodeParts - 1) / nodeParts * nodeParts;
+        Result result = pool.invoke(new PartRange(0, longest));
+        if (cancelled)
+            return false;
+        differingParts = result.differingParts;
+        numberOfDifferences = result.numberOfDifferences;
+        return true;
+    }
+
+    BitSet getDifferingParts() {
+        return differingParts;
+    }
+
+    NumberOfDifferences getNumberOfDifferences() {
+        return numberOfDifferences;
+    }
+
+    private Result compareRange(int from, int to) {
+        Result result = new Result(new BitSet(), new NumberOfDifferences(parts.length));
+        int[] groupOf = new int[parts.length];
+        int[] representatives = new int[parts.length];
+        int part = from;
+        int lastReported = from;
+        while (part < to && !cancelled) {
+            int level = highestNodeAt(part);
+            while (level > 0 && !areNodesEqual(level, part))
+                level--;
+            if (level == 0)
+                comparePart(part, groupOf, representatives, result);
+            part = Math.min(part + (1 << level), to);
+            if (part - lastReported >= PROGRESS_INTERVAL) {
+                progress(part - lastReported);
+                lastReported = part;
+            }
+        }
+        progress(part - lastReported);
+        return result;
+    }
+
+    private int highestNodeAt(int part) {
+        int level = treeLevels;
+        while (level > 0 && part % (1 << level) != 0)
+            level--;
+        return level;
+    }
+
+    /**
+     * Returns true if the node is equal in all the files which have all the parts under it. A file which has only
+     * some of the parts under the node must be compared part by part.
+     */
+    private boolean areNodesEqual(int level, int part) {
+        int end = part + (1 << level);
+        int first = -1;
+        for (int file = 0; file < parts.length; file++) {
+            if (parts[file] <= part)
+                continue;
+            if (parts[file] < end)
+                return false;
+            if (first < 0)
+                first = file;
+            else if (!files.areNodesEqual(level, part >> level, first, file))
+                return false;
+        }
+        return true;
+    }
+
+    private void comparePart(int part, int[] groupOf, int[] representatives, Result result) {
+        int groups = 0;
+        for (int file = 0; file < parts.length; file++) {
+            groupOf[file] = -1;
+            if (!files.hasPart(file, part))
+                continue;
+            int group = 0;
+            while (group < groups && !files.arePartsEquals(part, representatives[group], file))
+                group++;
+            if (group == groups)
+                representatives[groups++] = file;
+            groupOf[file] = group;
+        }
+        if (groups > 1)
+            result.addDifference(part, groupOf);
+    }
+
+    /**
+     * Tells the listener when the share of compared parts has grown by at least one permille, and asks it whether the
+     * comparison has been cancelled.
+     */
+    private void progress(int newlyCompared) {
+        long compared = comparedParts.addAndGet(newlyCompared);
+        if (listener == null)
+            return;
+        int permille = longest == 0 ? 1000 : (int) (compared * 1000 / longest);
+        int reported = reportedPermille.get();
+        if (permille > reported && reportedPermille.compareAndSet(reported, permille))
+            listener.progressChanged(compared, longest);
+        if (listener.isCancelled())
+            cancelled = true;
+    }
+
+    private static class Result {
+        private final BitSet differingParts;
+        private final NumberOfDifferences numberOfDifferences;
+
+        public Result(BitSet differingParts, NumberOfDifferences numberOfDifferences) {
+            this.differingParts = differingParts;
+            this.numberOfDifferences = numberOfDifferences;
+        }
+
+        public void addDifference(int part, int[] groupOf) {
+            differingParts.set(part);
+            for (int i = 0; i < (groupOf.length - 1); i++)
+                if (groupOf[i] >= 0)
+                    for (int j = (i + 1); j < groupOf.length; j++)
+                        if (groupOf[j] >= 0 && groupOf[j] != groupOf[i])
+                            numberOfDifferences.add(i, j);
+        }
+
+        public Result merge(Result other) {
+            differingParts.or(other.differingParts);
+            numberOfDifferences.addAll(other.numberOfDifferences);
+            return this;
+        }
+    }
+
+    private class PartRange extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        public PartRange(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Result compute() {
+            int middle = from + (to - from) / 2 / threshold * threshold;
+            if (to - from <= threshold || middle == from)
+                return compareRange(from, to);
+            PartRange first = new PartRange(from, middle);
+            PartRange second = new PartRange(middle, to);
+            second.fork();
+            Result result = first.compute();
+            return result.merge(second.join());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.comparison;
+
+import net.orfjackal.ccorr.checksum.*;
+
+import javax.swing.*;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the checksums of a growing file to a comparison as they arrive. The first version of the file is added
+ * to the comparison and the later versions replace it, so that the parts which have already been marked keep their
+ * marks. If the file has been removed from the comparison, the later versions are ignored.
+ * <p/>
+ * The follower calls this from its own thread, but the comparison is also used by the GUI, so by default the updates
+ * are run on the event dispatch thread.
+ */
+public class FollowedFileUpdater implements ChecksumFileFollower.Listener {
+    private final static Logger logger = Logger.getLogger(FollowedFileUpdater.class.getName());
+
+    private static final Executor EVENT_DISPATCH_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            SwingUtilities.invokeLater(command);
+        }
+    };
+
+    private final Comparison comparison;
+    private final Executor executor;
+    private volatile ChecksumFile current;
+    private boolean removed;
+
+    public FollowedFileUpdater(Comparison comparison) {
+        this(comparison, EVENT_DISPATCH_THREAD);
+    }
+
+    /**
+     * @param executor runs the updates of the comparison in the thread which owns it
+     */
+    public FollowedFileUpdater(Comparison comparison, Executor executor) {
+        this.comparison = comparison;
+        this.executor = executor;
+    }
+
+    public void checksumFileUpdated(final ChecksumFile checksumFile) {
+        executor.execute(new Runnable() {
+            public void run() {
+                update(checksumFile);
+            }
+        });
+    }
+
+    private void update(ChecksumFile checksumFile) {
+        if (removed)
+            return;
+        if (current == null) {
+            comparison.addFile(checksumFile);
+        } else if (!comparison.replaceFile(current, checksumFile)) {
+            logger.info("FollowedFileUpdater: " + checksumFile.getSourceFile() + " is no more in the comparison");
+            removed = true;
+            return;
+        }
+        current = checksumFile;
+        comparison.doCompare();
+    }
+
+    public ChecksumFile getCurrent() {
+        return current;
+    }
+}
@@ -4,7 +4,7 @@
 
 package net.orfjackal.ccorr.comparison;
 
-import java.util.Hashtable;
+import java.util.Arrays;
 import java.util.logging.*;
 
 public class GoodPartsMarker {
@@ -15,7 +15,7 @@ public class GoodPartsMarker {
     private int undefined;
 
     private final Comparison comparison;
-    private Hashtable<String, Integer> checksumOccurrences;
+    private int[] checksumOccurrences;
     private int max;
     private int maxIndex;
     private boolean isUnsure;
@@ -59,7 +59,9 @@ public class GoodPartsMarker {
     }
 
     private void resetOccurrences() {
-        checksumOccurrences = new Hashtable<String, Integer>();
+        if (checksumOccurrences == null || checksumOccurrences.length != comparison.getFilesCount())
+            checksumOccurrences = new int[comparison.getFilesCount()];
+        Arrays.fill(checksumOccurrences, 0);
         max = 1;
         maxIndex = -1;
         isUnsure = false;
@@ -108,7 +110,7 @@ public class GoodPartsMarker {
 
     private void findFileOccurrences(int difference, int file) {
         if (comparison.isGoodIndex(difference, file)) {
-            String crc = comparison.getChecksum(difference, file);
+            int crc = comparison.getChecksumCode(difference, file);
             if (isPastTheEndOfFile(crc))
                 return;
 
@@ -116,25 +118,19 @@ public class GoodPartsMarker {
         }
     }
 
-    private void addCrcOccurrence(int file, String crc) {
-        Integer counter = addOccurrence(crc);
+    private void addCrcOccurrence(int file, int crc) {
+        int counter = addOccurrence(crc);
         if (counter > max)
             crcIsRepetitionsLeader(file, counter);
         else if (counter == max)
             crcShareRepetitionLeadership();
     }
 
-    private Integer addOccurrence(String crc) {
-        Integer counter = 0;
-        if (checksumOccurrences.containsKey(crc)) {
-            counter = checksumOccurrences.get(crc);
-            checksumOccurrences.remove(crc);
-        }
-        checksumOccurrences.put(crc, ++counter);
-        return counter;
+    private int addOccurrence(int crc) {
+        return ++checksumOccurrences[crc];
     }
 
-    private void crcIsRepetitionsLeader(int file, Integer counter) {
+    private void crcIsRepetitionsLeader(int file, int counter) {
         max = counter;
         maxIndex = file;
         isUnsure = false;
@@ -144,8 +140,8 @@ public class GoodPartsMarker {
         isUnsure = true;
     }
 
-    private boolean isPastTheEndOfFile(String crc) {
-        return crc.length() == 0;
+    private boolean isPastTheEndOfFile(int crc) {
+        return crc < 0;
     }
 
     private void logStatistics() {
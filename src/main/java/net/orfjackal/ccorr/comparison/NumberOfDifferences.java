@@ -7,16 +7,60 @@ package net.orfjackal.ccorr.comparison;
 import java.io.Serializable;
 
 public class NumberOfDifferences implements Serializable {
+    private static final long serialVersionUID = -1082505853817086738L;
+
     private int[][] numberOfDifferences;
 
     public NumberOfDifferences(int size) {
         this.numberOfDifferences = new int[size][size];
     }
 
+    /**
+     * Returns a copy with room for the given number of files, which keeps the counts of the files that it has.
+     */
+    public NumberOfDifferences withSize(int size) {
+        NumberOfDifferences copy = new NumberOfDifferences(size);
+        int common = Math.min(size, size());
+        for (int i = 0; i < common; i++)
+            System.arraycopy(numberOfDifferences[i], 0, copy.numberOfDifferences[i], 0, common);
+        return copy;
+    }
+
+    /**
+     * Returns a copy without the counts of the file at the index, in which the later files have moved one index down.
+     */
+    public NumberOfDifferences withoutFile(int index) {
+        NumberOfDifferences copy = new NumberOfDifferences(size() - 1);
+        for (int i = 0, ci = 0; i < size(); i++) {
+            if (i == index)
+                continue;
+            for (int j = 0, cj = 0; j < size(); j++) {
+                if (j == index)
+                    continue;
+                copy.numberOfDifferences[ci][cj++] = numberOfDifferences[i][j];
+            }
+            ci++;
+        }
+        return copy;
+    }
+
+    public int size() {
+        return numberOfDifferences.length;
+    }
+
     public void add(int index1, int index2) {
         numberOfDifferences[index1][index2]++;
     }
 
+    /**
+     * Adds the counts of another matrix of the same size to this one.
+     */
+    public void addAll(NumberOfDifferences other) {
+        for (int i = 0; i < numberOfDifferences.length; i++)
+            for (int j = 0; j < numberOfDifferences[i].length; j++)
+                numberOfDifferences[i][j] += other.numberOfDifferences[i][j];
+    }
+
     public int get(int index1, int index2) {
         return numberOfDifferences[index1][index2];
     }
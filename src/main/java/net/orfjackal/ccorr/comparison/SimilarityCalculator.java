@@ -24,7 +24,7 @@ public class SimilarityCalculator {
     }
 
     private double calculate(int file1, int file2) {
-        int shortest = files.findShorterFileParts(file1, file2);
-        return 1.0 - ((1.0 * numberOfDifferences.get(file1, file2)) / shortest);
+        int compared = files.countPartsPresentInBothFiles(file1, file2);
+        return 1.0 - ((1.0 * numberOfDifferences.get(file1, file2)) / compared);
     }
 }
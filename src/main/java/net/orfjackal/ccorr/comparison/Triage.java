@@ -0,0 +1,285 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.comparison;
+
+import net.orfjackal.ccorr.checksum.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/**
+ * Estimates how the candidate copies of a file differ from each other before their full checksums are calculated.
+ * Only a deterministic sample of the parts is read from each copy, the copies in parallel, and the sampled parts are
+ * compared the same way as in a {@link Comparison}. The result is an estimate of the {@link Similarity} of the copies,
+ * of the rate of corrupt parts in each copy, and a recommendation of which copies are worth checksumming fully.
+ * <p/>
+ * A sampled part of a copy is counted as corrupt when it differs from the majority of the copies. A copy is
+ * recommended if it is not a duplicate of an already recommended copy, and either fewer than two copies have been
+ * recommended or it is good at some sampled part where none of the recommended copies is good. The copies are
+ * considered in the order of their corruption rate.
+ */
+public class Triage {
+    private final static Logger logger = Logger.getLogger(Triage.class.getName());
+
+    public static final int DEFAULT_SAMPLE_PARTS = 64;
+    private static final long SAMPLE_SEED = 0x5EED;
+
+    private final List<File> candidates;
+    private final long partLength;
+    private final String algorithm;
+    private int sampleParts = DEFAULT_SAMPLE_PARTS;
+
+    private ChecksumFiles files;
+    private BitSet sampledParts;
+    private Similarity similarity;
+    private double[] corruptionRates;
+    private int[] duplicateOf;
+    private List<File> recommended;
+
+    public Triage(List<File> candidates, long partLength, String algorithm) {
+        this.candidates = new ArrayList<File>(candidates);
+        this.partLength = partLength;
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Sets how many parts are read from each copy. If the copies have fewer parts, all of them are read.
+     */
+    public void setSampleParts(int sampleParts) {
+        this.sampleParts = sampleParts;
+    }
+
+    public void calculate() throws IOException {
+        logger.log(Level.INFO, "Triage.calculate: {0} candidates, {1} parts each", new Object[]{candidates.size(), sampleParts});
+        long maxLength = 0;
+        for (File candidate : candidates)
+            maxLength = Math.max(maxLength, candidate.length());
+        long constrainedLength = new FileDivider(candidates.get(0), partLength).getPartLength();
+        int maxParts = (int) ((maxLength + constrainedLength - 1) / constrainedLength);
+        sampledParts = choose(maxParts, sampleParts);
+
+        files = new ChecksumFiles();
+        for (ChecksumFile cf : readSamples(constrainedLength))
+            if (!files.add(cf))
+                throw new IllegalStateException("Sample not comparable: " + cf.getSourceFile());
+        NumberOfDifferences numberOfDifferences = countDifferences();
+        similarity = new SimilarityCalculator(files, numberOfDifferences).calculate();
+        BitSet[] goodParts = estimateCorruption();
+        findDuplicates(numberOfDifferences);
+        recommend(goodParts);
+    }
+
+    /**
+     * Chooses <code>count</code> of the parts, one from each range of <code>parts / count</code> consecutive parts,
+     * so that the sample covers the whole file and is the same every time.
+     */
+    static BitSet choose(int parts, int count) {
+        BitSet chosen = new BitSet(parts);
+        if (parts <= count) {
+            chosen.set(0, parts);
+            return chosen;
+        }
+        Random random = new Random(SAMPLE_SEED);
+        for (int i = 0; i < count; i++) {
+            int from = (int) ((long) parts * i / count);
+            int to = (int) ((long) parts * (i + 1) / count);
+            chosen.set(from + random.nextInt(to - from));
+        }
+        return chosen;
+    }
+
+    private List<ChecksumFile> readSamples(final long constrainedLength) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(candidates.size(), ChecksumBatch.MAX_CONCURRENT_FILES));
+        try {
+            List<Future<ChecksumFile>> futures = new ArrayList<Future<ChecksumFile>>();
+            for (final File candidate : candidates) {
+                futures.add(executor.submit(new Callable<ChecksumFile>() {
+                    public ChecksumFile call() {
+                        return ChecksumFileFactory.createChecksumFileOfParts(candidate, constrainedLength, algorithm, sampledParts);
+                    }
+                }));
+            }
+            List<ChecksumFile> samples = new ArrayList<ChecksumFile>();
+            for (int i = 0; i < futures.size(); i++) {
+                ChecksumFile sample = futures.get(i).get();
+                if (sample == ChecksumFileFactory.EMPTY_DATA)
+                    throw new IOException("Unable to read " + candidates.get(i));
+                samples.add(sample);
+            }
+            return samples;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Triage interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private NumberOfDifferences countDifferences() {
+        NumberOfDifferences numberOfDifferences = new NumberOfDifferences(files.size());
+        for (int i = 0; i < files.size() - 1; i++)
+            for (int j = i + 1; j < files.size(); j++)
+                for (int part = sampledParts.nextSetBit(0); part >= 0; part = sampledParts.nextSetBit(part + 1))
+                    if (files.isPartPresentInBothFiles(part, i, j) && !files.arePartsEquals(part, i, j))
+                        numberOfDifferences.add(i, j);
+        return numberOfDifferences;
+    }
+
+    /**
+     * Finds the majority checksum of each sampled part, and returns the sampled parts where each copy has it.
+     */
+    private BitSet[] estimateCorruption() {
+        BitSet[] goodParts = new BitSet[files.size()];
+        int[] judged = new int[files.size()];
+        int[] corrupt = new int[files.size()];
+        for (int file = 0; file < files.size(); file++)
+            goodParts[file] = new BitSet();
+        for (int part = sampledParts.nextSetBit(0); part >= 0; part = sampledParts.nextSetBit(part + 1)) {
+            String majority = majorityAt(part);
+            if (majority == null)
+                continue;
+            for (int file = 0; file < files.size(); file++) {
+                if (!files.hasPart(file, part))
+                    continue;
+                judged[file]++;
+                if (majority.equals(files.getChecksum(file, part)))
+                    goodParts[file].set(part);
+                else
+                    corrupt[file]++;
+            }
+        }
+        corruptionRates = new double[files.size()];
+        for (int file = 0; file < files.size(); file++)
+            corruptionRates[file] = judged[file] == 0 ? 0.0 : (1.0 * corrupt[file]) / judged[file];
+        return goodParts;
+    }
+
+    /**
+     * Returns the checksum which more copies have at the part than any other checksum, if at least two copies have
+     * it, or null if there is no such checksum.
+     */
+    private String majorityAt(int part) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int file = 0; file < files.size(); file++) {
+            String checksum = files.getChecksum(file, part);
+            if (checksum != null)
+                counts.put(checksum, counts.containsKey(checksum) ? counts.get(checksum) + 1 : 1);
+        }
+        String majority = null;
+        int most = 1;
+        boolean tie = false;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > most) {
+                majority = entry.getKey();
+                most = entry.getValue();
+                tie = false;
+            } else if (entry.getValue() == most) {
+                tie = true;
+            }
+        }
+        return tie ? null : majority;
+    }
+
+    private void findDuplicates(NumberOfDifferences numberOfDifferences) {
+        duplicateOf = new int[files.size()];
+        for (int file = 0; file < files.size(); file++) {
+            duplicateOf[file] = -1;
+            for (int earlier = 0; earlier < file && duplicateOf[file] < 0; earlier++)
+                if (duplicateOf[earlier] < 0
+                        && numberOfDifferences.get(earlier, file) == 0
+                        && files.get(earlier).getSourceFileLength() == files.get(file).getSourceFileLength())
+                    duplicateOf[file] = earlier;
+        }
+    }
+
+    private void recommend(BitSet[] goodParts) {
+        Integer[] order = new Integer[files.size()];
+        for (int file = 0; file < order.length; file++)
+            order[file] = file;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer file1, Integer file2) {
+                return Double.compare(corruptionRates[file1], corruptionRates[file2]);
+            }
+        });
+
+        List<Integer> chosen = new ArrayList<Integer>();
+        BitSet covered = new BitSet();
+        for (int file : order) {
+            if (isDuplicateOfAny(file, chosen))
+                continue;
+            BitSet newlyCovered = (BitSet) goodParts[file].clone();
+            newlyCovered.andNot(covered);
+            if (chosen.size() < 2 || !newlyCovered.isEmpty()) {
+                chosen.add(file);
+                covered.or(goodParts[file]);
+            }
+        }
+        Collections.sort(chosen);
+        recommended = new ArrayList<File>();
+        for (int file : chosen)
+            recommended.add(candidates.get(file));
+    }
+
+    private boolean isDuplicateOfAny(int file, List<Integer> chosen) {
+        for (int other : chosen)
+            if (original(file) == original(other))
+                return true;
+        return false;
+    }
+
+    private int original(int file) {
+        return duplicateOf[file] < 0 ? file : duplicateOf[file];
+    }
+
+    public BitSet getSampledParts() {
+        return sampledParts;
+    }
+
+    /**
+     * Returns the estimated similarity of the copies, in the same form as {@link Comparison} calculates it.
+     */
+    public Similarity getSimilarity() {
+        return similarity;
+    }
+
+    /**
+     * Returns the estimated share of the parts of the copy which differ from the majority of the copies.
+     */
+    public double getCorruptionRate(int candidate) {
+        return corruptionRates[candidate];
+    }
+
+    /**
+     * Returns the index of an earlier copy whose sampled parts are all the same as this copy's, or -1 if there is
+     * none.
+     */
+    public int getDuplicateOf(int candidate) {
+        return duplicateOf[candidate];
+    }
+
+    /**
+     * Returns the copies which are worth checksumming fully, in their original order.
+     */
+    public List<File> getRecommended() {
+        return recommended;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Sampled %d parts of %d copies\n", sampledParts.cardinality(), candidates.size()));
+        for (int i = 0; i < candidates.size(); i++) {
+            sb.append(String.format("%s: %.1f%% corrupt", candidates.get(i).getName(), corruptionRates[i] * 100));
+            if (duplicateOf[i] >= 0)
+                sb.append(", duplicate of ").append(candidates.get(duplicateOf[i]).getName());
+            if (recommended.contains(candidates.get(i)))
+                sb.append(", recommended");
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
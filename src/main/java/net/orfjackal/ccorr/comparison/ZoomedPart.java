@@ -0,0 +1,176 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.comparison;
+
+import net.orfjackal.ccorr.checksum.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A differing part of a comparison which has been split into shorter sub-parts. The checksums of the sub-parts are
+ * calculated by reading only the range of the part from each file. Each differing sub-part becomes a row of its own,
+ * so that a part which is corrupt in every file can be combined from the good sub-parts of different files.
+ */
+public class ZoomedPart implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int part;
+    private final long startOffset;
+    private final long subPartLength;
+    private final long[] sourceFileLengths;
+    private final List<List<String>> checksums;
+    private final List<Integer> subPartsThatDiffer = new ArrayList<Integer>();
+    private final ComparisonItems items;
+
+    private ZoomedPart(int part, long startOffset, long subPartLength, long[] sourceFileLengths, List<List<String>> checksums) {
+        this(part, startOffset, subPartLength, sourceFileLengths, checksums, new ComparisonItems());
+    }
+
+    private ZoomedPart(int part, long startOffset, long subPartLength, long[] sourceFileLengths, List<List<String>> checksums,
+                       ComparisonItems items) {
+        this.part = part;
+        this.startOffset = startOffset;
+        this.subPartLength = subPartLength;
+        this.sourceFileLengths = sourceFileLengths;
+        this.checksums = checksums;
+        this.items = items;
+        findSubPartsThatDiffer();
+    }
+
+    /**
+     * Reads the part from all the files in parallel and calculates the checksums of its sub-parts.
+     */
+    public static ZoomedPart calculate(final ChecksumFiles files, int part, final long subPartLength) throws IOException {
+        final String algorithm = files.getAlgorithm();
+        List<Callable<List<String>>> tasks = new ArrayList<Callable<List<String>>>();
+        long[] sourceFileLengths = new long[files.size()];
+        long startOffset = part * files.getPartLength();
+        for (int i = 0; i < files.size(); i++) {
+            sourceFileLengths[i] = files.get(i).getSourceFileLength();
+            tasks.add(subPartsOf(files, i, part, subPartLength, algorithm));
+        }
+        return new ZoomedPart(part, startOffset, subPartLength, sourceFileLengths, invokeAll(tasks));
+    }
+
+    private static Callable<List<String>> subPartsOf(ChecksumFiles files, int i, int part, final long subPartLength,
+                                                     final String algorithm) {
+        final ChecksumFile file = files.get(i);
+        final int fromSubPart = (int) (part * files.getPartLength() / subPartLength);
+        final int toSubPart = files.hasPart(i, part)
+                ? (int) ((files.getEndOffset(i, part) + subPartLength) / subPartLength)
+                : fromSubPart;
+        return new Callable<List<String>>() {
+            public List<String> call() throws IOException {
+                if (fromSubPart == toSubPart)
+                    return new ArrayList<String>();
+                return ChecksumFileFactory.calculateSubPartChecksums(file.getSourceFile(), subPartLength, algorithm, fromSubPart, toSubPart);
+            }
+        };
+    }
+
+    /**
+     * Returns a copy which also has the sub-parts of the file at the index, which is the last file of the files. Only
+     * the part's range of that file is read. The marks of the existing sub-parts are kept.
+     */
+    public ZoomedPart withFile(ChecksumFiles files, int file) throws IOException {
+        List<Callable<List<String>>> tasks = new ArrayList<Callable<List<String>>>();
+        tasks.add(subPartsOf(files, file, part, subPartLength, files.getAlgorithm()));
+        List<List<String>> checksums = new ArrayList<List<String>>(this.checksums);
+        checksums.addAll(invokeAll(tasks));
+        long[] sourceFileLengths = Arrays.copyOf(this.sourceFileLengths, this.sourceFileLengths.length + 1);
+        sourceFileLengths[file] = files.get(file).getSourceFileLength();
+        return new ZoomedPart(part, startOffset, subPartLength, sourceFileLengths, checksums, items);
+    }
+
+    /**
+     * Returns a copy without the sub-parts of the file at the index. The marks of the sub-parts are kept, and the items
+     * of the checksums which only that file had are removed.
+     */
+    public ZoomedPart withoutFile(int file) {
+        List<List<String>> checksums = new ArrayList<List<String>>(this.checksums);
+        checksums.remove(file);
+        long[] sourceFileLengths = new long[this.sourceFileLengths.length - 1];
+        for (int i = 0, j = 0; i < this.sourceFileLengths.length; i++)
+            if (i != file)
+                sourceFileLengths[j++] = this.sourceFileLengths[i];
+        ZoomedPart copy = new ZoomedPart(part, startOffset, subPartLength, sourceFileLengths, checksums, items);
+        for (int subPart = copy.countSubParts(); subPart < countSubParts(); subPart++)
+            items.retain(subPart, Collections.<String>emptySet());
+        return copy;
+    }
+
+    private static List<List<String>> invokeAll(List<Callable<List<String>>> tasks) throws IOException {
+        List<List<String>> results = new ArrayList<List<String>>();
+        try {
+            for (Future<List<String>> future : ForkJoinPool.commonPool().invokeAll(tasks))
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        return results;
+    }
+
+    private int countSubParts() {
+        int subParts = 0;
+        for (List<String> fileChecksums : checksums)
+            subParts = Math.max(subParts, fileChecksums.size());
+        return subParts;
+    }
+
+    private void findSubPartsThatDiffer() {
+        int subParts = countSubParts();
+        for (int subPart = 0; subPart < subParts; subPart++) {
+            Set<String> distinct = new HashSet<String>();
+            for (int file = 0; file < checksums.size(); file++) {
+                String checksum = getChecksum(subPart, file);
+                if (checksum != null && distinct.add(checksum) && items.find(subPart, checksum) == null)
+                    items.add(new ComparisonItem(checksum, subPart));
+            }
+            items.retain(subPart, distinct);
+            if (distinct.size() > 1)
+                subPartsThatDiffer.add(subPart);
+        }
+    }
+
+    private String getChecksum(int subPart, int file) {
+        List<String> fileChecksums = checksums.get(file);
+        return subPart < fileChecksums.size() ? fileChecksums.get(subPart) : null;
+    }
+
+    public int getPart() {
+        return part;
+    }
+
+    public long getSubPartLength() {
+        return subPartLength;
+    }
+
+    public List<Integer> getSubPartsThatDiffer() {
+        return subPartsThatDiffer;
+    }
+
+    public ComparisonItem getItem(int subPart, int file) {
+        return items.find(subPart, getChecksum(subPart, file));
+    }
+
+    public long getStartOffset(int subPart) {
+        return startOffset + subPart * subPartLength;
+    }
+
+    public long getEndOffset(int subPart) {
+        long offset = -1;
+        for (int file = 0; file < checksums.size(); file++)
+            if (getChecksum(subPart, file) != null)
+                offset = Math.max(offset, Math.min(getStartOffset(subPart) + subPartLength, sourceFileLengths[file]) - 1);
+        return offset;
+    }
+}
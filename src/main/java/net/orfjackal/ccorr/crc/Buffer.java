@@ -4,22 +4,74 @@
 
 package net.orfjackal.ccorr.crc;
 
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a range of bytes which is backed either by a byte array or by a {@link ByteBuffer}, for example a direct
+ * or a memory-mapped buffer whose contents are not on the heap. The range can be moved with {@link #setRange}, so
+ * that a reader can hand out the same instance for every chunk it reads into its reused storage.
+ */
 public class Buffer {
     public final static Buffer EOF = new Buffer(new byte[0], 0);
 
     private byte[] buffer;
+    private ByteBuffer byteBuffer;
+    private int offset;
     private int length;
 
     public Buffer(byte[] buffer, int length) {
+        this(buffer, 0, length);
+    }
+
+    public Buffer(byte[] buffer, int offset, int length) {
         this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Creates a view of the remaining bytes of the given buffer. The offsets of this view are absolute indexes of the
+     * backing array, or of the given buffer if it has no array.
+     */
+    public Buffer(ByteBuffer byteBuffer) {
+        if (byteBuffer.hasArray()) {
+            this.buffer = byteBuffer.array();
+            this.offset = byteBuffer.arrayOffset() + byteBuffer.position();
+        } else {
+            this.byteBuffer = byteBuffer;
+            this.offset = byteBuffer.position();
+        }
+        this.length = byteBuffer.remaining();
+    }
+
+    public Buffer setRange(int offset, int length) {
+        this.offset = offset;
         this.length = length;
+        return this;
+    }
+
+    public boolean hasArray() {
+        return buffer != null;
     }
 
     public byte[] getBytes() {
         return buffer;
     }
 
+    public int getOffset() {
+        return offset;
+    }
+
     public int getLength() {
         return length;
     }
+
+    public ByteBuffer getByteBuffer() {
+        if (hasArray())
+            return ByteBuffer.wrap(buffer, offset, length);
+        ByteBuffer view = byteBuffer.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view;
+    }
 }
@@ -4,53 +4,150 @@
 
 package net.orfjackal.ccorr.crc;
 
+import java.nio.ByteBuffer;
+
+/**
+ * Calculates the checksum of a part with one or more algorithms at the same time, so that the data needs to be read
+ * only once. The first algorithm is the primary one, which is used by the methods that take no algorithm index.
+ */
 public class CRC {
-    private final CRCAlgorithm algorithm;
+    public static final int BLOCK_LENGTH = 4 * 1024;
+
+    private final CRCAlgorithm[] algorithms;
     private int firstByte = Byte.MIN_VALUE - 1;
     private boolean allSameAsFirstByte = true;
 
-    public CRC(CRCAlgorithm algorithm) {
-        this.algorithm = algorithm;
+    public CRC(CRCAlgorithm... algorithms) {
+        if (algorithms.length == 0)
+            throw new IllegalArgumentException("No algorithms");
+        this.algorithms = algorithms;
     }
 
     public void update(byte[] bytes, int offset, int length) {
-        algorithm.update(bytes, offset, length);
+        update(ByteBuffer.wrap(bytes, offset, length));
+    }
 
+    /**
+     * Feeds the remaining bytes of the buffer to the algorithms without changing the buffer's position. While the
+     * data is uniform, it is checked and hashed one {@link #BLOCK_LENGTH} block at a time, so that the block is still
+     * in the CPU cache when the algorithms read it. The check reads a <code>long</code> at a time and stops at the
+     * first byte which differs, after which the rest of the data is hashed in one go.
+     */
+    public void update(ByteBuffer buffer) {
+        int end = buffer.limit();
+        ByteBuffer block = buffer.duplicate();
+        if (block.position() == end)
+            return;
         if (firstByte < Byte.MIN_VALUE) {
-            firstByte = bytes[offset];
+            firstByte = block.get(block.position());
             allSameAsFirstByte = true;
         }
-        if (allSameAsFirstByte) {
-            for (int i = offset; i < length; i++) {
-                if (bytes[i] != firstByte) {
-                    allSameAsFirstByte = false;
-                    break;
-                }
-            }
+        int position = block.position();
+        while (allSameAsFirstByte && position < end) {
+            int blockEnd = Math.min(position + BLOCK_LENGTH, end);
+            allSameAsFirstByte = isFilledWithFirstByte(block, position, blockEnd);
+            updateAlgorithms(block, position, blockEnd);
+            position = blockEnd;
+        }
+        if (position < end)
+            updateAlgorithms(block, position, end);
+    }
+
+    private void updateAlgorithms(ByteBuffer buffer, int from, int to) {
+        int limit = buffer.limit();
+        for (CRCAlgorithm algorithm : algorithms) {
+            buffer.limit(to);
+            buffer.position(from);
+            algorithm.update(buffer);
         }
+        buffer.limit(limit);
+    }
+
+    private boolean isFilledWithFirstByte(ByteBuffer buffer, int from, int to) {
+        long pattern = (firstByte & 0xFFL) * 0x0101010101010101L;
+        int i = from;
+        for (; i + 8 <= to; i += 8)
+            if (buffer.getLong(i) != pattern)
+                return false;
+        for (; i < to; i++)
+            if (buffer.get(i) != firstByte)
+                return false;
+        return true;
     }
 
     public String getHexValue() {
         if (!allSameAsFirstByte)
-            return algorithm.getHexValue();
+            return algorithms[0].getHexValue();
         String hex = Integer.toHexString(firstByte & 0xFF).toUpperCase();
         if (hex.length() < 2)
             hex = "0" + hex;
         return "0x" + hex;
     }
 
+    /**
+     * Returns true if all the bytes since the last reset have been the same, in which case the checksum is shown as
+     * that byte's hex value.
+     */
+    public boolean isUniform() {
+        return allSameAsFirstByte;
+    }
+
+    public int getUniformByte() {
+        return firstByte & 0xFF;
+    }
+
+    public long getValue() {
+        return getValue(0);
+    }
+
+    public long getValue(int algorithm) {
+        return algorithms[algorithm].getValue();
+    }
+
+    public byte[] getByteArray() {
+        return getByteArray(0);
+    }
+
+    public byte[] getByteArray(int algorithm) {
+        return algorithms[algorithm].getByteArray();
+    }
+
+    public int getDigestLength() {
+        return getDigestLength(0);
+    }
+
+    public int getDigestLength(int algorithm) {
+        return algorithms[algorithm].getDigestLength();
+    }
+
     public String getAlgorithm() {
-        return this.algorithm.getName();
+        return getAlgorithm(0);
+    }
+
+    public String getAlgorithm(int algorithm) {
+        return algorithms[algorithm].getName();
+    }
+
+    public int getAlgorithmCount() {
+        return algorithms.length;
+    }
+
+    public void update(Buffer buffer) {
+        if (buffer.hasArray())
+            update(buffer.getBytes(), buffer.getOffset(), buffer.getLength());
+        else
+            update(buffer.getByteBuffer());
     }
 
     public String calculateChecksum(Buffer buffer) {
         reset();
-        update(buffer.getBytes(), 0, buffer.getLength());
+        update(buffer);
         return getHexValue();
     }
 
-    private void reset() {
-        algorithm.reset();
+    public void reset() {
+        for (CRCAlgorithm algorithm : algorithms)
+            algorithm.reset();
         firstByte = Byte.MIN_VALUE - 1;
         allSameAsFirstByte = true;
     }
@@ -6,13 +6,17 @@ package net.orfjackal.ccorr.crc;
 
 import jonelo.jacksum.algorithm.AbstractChecksum;
 
+import java.nio.ByteBuffer;
+
 public class CRCAlgorithm {
     private final String name;
     private final AbstractChecksum crc;
+    private final int digestLength;
 
-    public CRCAlgorithm(String name, AbstractChecksum crc) {
+    public CRCAlgorithm(String name, AbstractChecksum crc, int digestLength) {
         this.name = name;
         this.crc = crc;
+        this.digestLength = digestLength;
     }
 
     public String getName() {
@@ -27,7 +31,32 @@ public class CRCAlgorithm {
         crc.update(bytes, offset, length);
     }
 
+    public void update(ByteBuffer buffer) {
+        crc.update(buffer);
+    }
+
     public String getHexValue() {
         return crc.getHexValue();
     }
+
+    /**
+     * Returns the value of checksums which are at most 8 bytes long.
+     */
+    public long getValue() {
+        return crc.getValue();
+    }
+
+    /**
+     * Returns the value of message digests which are longer than 8 bytes. Resets the algorithm.
+     */
+    public byte[] getByteArray() {
+        return crc.getByteArray();
+    }
+
+    /**
+     * Returns the length of the checksum in bytes.
+     */
+    public int getDigestLength() {
+        return digestLength;
+    }
 }
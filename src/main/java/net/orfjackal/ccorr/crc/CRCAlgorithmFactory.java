@@ -10,20 +10,28 @@ import java.util.Arrays;
 
 public class CRCAlgorithmFactory {
     private enum Names {
-        CRC_32("CRC-32"),
-        MD5("MD5"),
-        SHA_1("SHA-1");
+        CRC_32("CRC-32", 4),
+        CRC_32C("CRC-32C", 4),
+        XXHASH_64("xxHash64", 8),
+        MD5("MD5", 16),
+        SHA_1("SHA-1", 20);
 
         private final String value;
+        private final int digestLength;
 
-        private Names(final String value) {
+        private Names(final String value, final int digestLength) {
             this.value = value;
+            this.digestLength = digestLength;
         }
 
         public String value() {
             return value;
         }
 
+        public int digestLength() {
+            return digestLength;
+        }
+
         public static Names get(String value) {
             for (Names name : values())
                 if (name.value().equals(value))
@@ -32,21 +40,45 @@ public class CRCAlgorithmFactory {
         }
     }
 
+    /**
+     * Returns true if checksums can be calculated with the algorithm. {@link #getByName} returns CRC-32 for the names
+     * which are not supported, so the callers which may be given other names must check them first.
+     */
+    public static boolean isSupported(String name) {
+        for (Names key : Names.values())
+            if (key.value().equals(name))
+                return true;
+        return false;
+    }
+
     public static CRCAlgorithm getByName(String name) {
         Names key = Names.get(name);
         switch (key) {
             case MD5:
-                return new CRCAlgorithm(key.value(), new MD(Names.MD5.value()));
+                return new CRCAlgorithm(key.value(), new MD(Names.MD5.value()), key.digestLength());
             case SHA_1:
-                return new CRCAlgorithm(key.value(), new MD(Names.SHA_1.value()));
+                return new CRCAlgorithm(key.value(), new MD(Names.SHA_1.value()), key.digestLength());
+            case CRC_32C:
+                return new CRCAlgorithm(key.value(), new Crc32c(), key.digestLength());
+            case XXHASH_64:
+                return new CRCAlgorithm(key.value(), new XxHash64(), key.digestLength());
             case CRC_32:
             default:
-                return new CRCAlgorithm(key.value(), new Crc32());
+                return new CRCAlgorithm(key.value(), new Crc32(), key.digestLength());
         }
     }
 
+    public static CRCAlgorithm[] getByNames(String... names) {
+        CRCAlgorithm[] algorithms = new CRCAlgorithm[names.length];
+        for (int i = 0; i < names.length; i++)
+            algorithms[i] = getByName(names[i]);
+        return algorithms;
+    }
+
     public static String[] getSupportedAlgorithms() {
-        String[] result = new String[]{Names.CRC_32.value(), Names.MD5.value(), Names.SHA_1.value()};
+        String[] result = new String[Names.values().length];
+        for (int i = 0; i < result.length; i++)
+            result[i] = Names.values()[i].value();
         Arrays.sort(result);
         return result;
     }
@@ -0,0 +1,53 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.crc;
+
+import jonelo.jacksum.algorithm.*;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC-32C (Castagnoli), which the JVM calculates with the CRC32 instructions of SSE 4.2 and ARMv8 when available.
+ */
+public class Crc32c extends AbstractChecksum {
+
+    private final CRC32C crc32c = new CRC32C();
+
+    @Override
+    public void reset() {
+        crc32c.reset();
+        length = 0;
+    }
+
+    @Override
+    public void update(byte[] buffer, int offset, int len) {
+        crc32c.update(buffer, offset, len);
+        length += len;
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        length += buffer.remaining();
+        crc32c.update(buffer);
+    }
+
+    @Override
+    public void update(int b) {
+        crc32c.update(b);
+        length++;
+    }
+
+    @Override
+    public long getValue() {
+        return crc32c.getValue();
+    }
+
+    @Override
+    public String getHexValue() {
+        String s = Service.hexformat(getValue(), 8);
+        return uppercase ? s.toUpperCase() : s;
+    }
+}
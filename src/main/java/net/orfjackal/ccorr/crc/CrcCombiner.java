@@ -0,0 +1,117 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.crc;
+
+import java.util.*;
+
+/**
+ * Calculates the CRC of two concatenated blocks of data from the CRCs of the blocks, without the data itself. Uses the
+ * GF(2) matrix method of zlib's <code>crc32_combine</code>, which works for all the reflected 32-bit CRCs.
+ */
+public class CrcCombiner {
+    private static final Map<String, Long> POLYNOMIALS = new HashMap<String, Long>();
+
+    static {
+        POLYNOMIALS.put("CRC-32", 0xEDB88320L);
+        POLYNOMIALS.put("CRC-32C", 0x82F63B78L);
+    }
+
+    private final String algorithm;
+    private final long polynomial;
+    private final Map<Long, Long> repeatedBytes = new HashMap<Long, Long>();
+
+    private CrcCombiner(String algorithm, long polynomial) {
+        this.algorithm = algorithm;
+        this.polynomial = polynomial;
+    }
+
+    /**
+     * Returns a combiner for the algorithm, or null if the checksums of the algorithm can not be combined.
+     */
+    public static CrcCombiner forAlgorithm(String algorithm) {
+        Long polynomial = POLYNOMIALS.get(algorithm);
+        return polynomial == null ? null : new CrcCombiner(algorithm, polynomial);
+    }
+
+    public static boolean isCombinable(String algorithm) {
+        return POLYNOMIALS.containsKey(algorithm);
+    }
+
+    /**
+     * Returns the CRC of the data whose first block has the CRC <code>crc1</code> and whose second block has the CRC
+     * <code>crc2</code> and is <code>length2</code> bytes long.
+     */
+    public long combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0)
+            return crc1;
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // the operator for one zero bit
+        odd[0] = polynomial;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd); // two zero bits
+        square(odd, even); // four zero bits
+
+        // apply length2 zero bytes to crc1, squaring the operator for each bit of length2
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0)
+                crc1 = times(even, crc1);
+            length2 >>>= 1;
+            if (length2 == 0)
+                break;
+            square(odd, even);
+            if ((length2 & 1) != 0)
+                crc1 = times(odd, crc1);
+            length2 >>>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    /**
+     * Returns the CRC of <code>length</code> copies of the byte <code>b</code>.
+     */
+    public long ofRepeatedByte(int b, long length) {
+        Long key = length * 256 + (b & 0xFF);
+        Long cached = repeatedBytes.get(key);
+        if (cached != null)
+            return cached;
+
+        CRCAlgorithm single = CRCAlgorithmFactory.getByName(algorithm);
+        single.update(new byte[]{(byte) b}, 0, 1);
+        long power = single.getValue();
+        long powerLength = 1;
+        long result = 0;
+        for (long remaining = length; remaining > 0; remaining >>>= 1) {
+            if ((remaining & 1) != 0)
+                result = combine(result, power, powerLength);
+            if (remaining > 1) {
+                power = combine(power, power, powerLength);
+                powerLength <<= 1;
+            }
+        }
+        repeatedBytes.put(key, result);
+        return result;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1)
+            if ((vector & 1) != 0)
+                sum ^= matrix[i];
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++)
+            square[n] = times(matrix, matrix[n]);
+    }
+}
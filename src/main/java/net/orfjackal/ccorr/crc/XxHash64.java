@@ -0,0 +1,136 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.crc;
+
+import jonelo.jacksum.algorithm.*;
+
+import java.nio.*;
+
+/**
+ * The 64-bit xxHash with seed 0. It is not a cryptographic hash, but detects corruption as well as CRC-64 would and
+ * is several times faster than MD5 or SHA-1. The input is consumed in stripes of 32 bytes; the bytes of an incomplete
+ * stripe are kept until the next update or until the value is asked for.
+ */
+public class XxHash64 extends AbstractChecksum {
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE_LENGTH = 32;
+
+    private final ByteBuffer stripe = ByteBuffer.allocate(STRIPE_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+
+    public XxHash64() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        stripe.clear();
+        length = 0;
+    }
+
+    @Override
+    public void update(byte[] buffer, int offset, int len) {
+        update(ByteBuffer.wrap(buffer, offset, len));
+    }
+
+    @Override
+    public void update(int b) {
+        update(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        ByteBuffer input = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        length += input.remaining();
+        if (stripe.position() > 0) {
+            while (stripe.hasRemaining() && input.hasRemaining())
+                stripe.put(input.get());
+            if (stripe.hasRemaining()) {
+                buffer.position(input.position());
+                return;
+            }
+            stripe.flip();
+            consumeStripe(stripe);
+            stripe.clear();
+        }
+        while (input.remaining() >= STRIPE_LENGTH)
+            consumeStripe(input);
+        stripe.put(input);
+        buffer.position(input.position());
+    }
+
+    private void consumeStripe(ByteBuffer input) {
+        v1 = round(v1, input.getLong());
+        v2 = round(v2, input.getLong());
+        v3 = round(v3, input.getLong());
+        v4 = round(v4, input.getLong());
+    }
+
+    @Override
+    public long getValue() {
+        long h;
+        if (length >= STRIPE_LENGTH) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = PRIME5;
+        }
+        h += length;
+
+        ByteBuffer tail = stripe.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        tail.flip();
+        while (tail.remaining() >= 8) {
+            h ^= round(0, tail.getLong());
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+        }
+        if (tail.remaining() >= 4) {
+            h ^= (tail.getInt() & 0xFFFFFFFFL) * PRIME1;
+            h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+        }
+        while (tail.hasRemaining()) {
+            h ^= (tail.get() & 0xFF) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long merge(long acc, long v) {
+        acc ^= round(0, v);
+        return acc * PRIME1 + PRIME4;
+    }
+
+    @Override
+    public String getHexValue() {
+        String s = Service.hexformat(getValue(), 16);
+        return uppercase ? s.toUpperCase() : s;
+    }
+}
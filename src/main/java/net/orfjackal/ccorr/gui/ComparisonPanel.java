@@ -15,6 +15,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.text.*;
+import java.util.*;
 
 /**
  * The user interface for a <code>Comparison</code>. It consists primarily of a <code>JTable</code>, which shows the
@@ -137,7 +138,7 @@ public class ComparisonPanel extends TabPanel {
         p.setBorder(BorderFactory.createEtchedBorder());
         p.setLayout(new FlowLayout(FlowLayout.CENTER));
 
-        button = new JButton("Add File");
+        button = new JButton("Add Files");
         final JButton button1 = button;
         button.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
@@ -260,17 +261,18 @@ public class ComparisonPanel extends TabPanel {
     }
 
     /**
-     * Creates a new ChecksumFile and adds it to the Comparison.
+     * Creates new ChecksumFiles of one or more files and adds them to the Comparison. The files are calculated
+     * concurrently, and each ChecksumFile is saved and added as soon as it is ready.
      */
     public void createAndAddChecksumFile() {
-        File inputFile;
-        File outputFile;
+        File[] inputFiles;
         String algorithm;
         long partLength;
 
-        // select input file, algorithm and part length
+        // select input files, algorithm and part length
         CreateChecksumsFileChooser chooser = new CreateChecksumsFileChooser();
         chooser.setCurrentDirectory(Settings.getCurrentDirectory());
+        chooser.setMultiSelectionEnabled(true);
 
         algorithm = tableModel.getAlgorithm();
         partLength = tableModel.getPartLength();
@@ -286,68 +288,253 @@ public class ComparisonPanel extends TabPanel {
         if (returnVal == JFileChooser.APPROVE_OPTION) {
             algorithm = chooser.getAlgorithm();
             partLength = chooser.getPartLength();
+            inputFiles = chooser.getSelectedFiles();
+            if (inputFiles.length == 0) {
+                inputFiles = new File[]{chooser.getSelectedFile()};
+            }
 
             Settings.setDefaultAlgorithm(algorithm);
             Settings.setDefaultPartLength(partLength);
-            Settings.setCurrentDirectory(chooser.getSelectedFile());
+            Settings.setCurrentDirectory(inputFiles[0]);
 
-            if (chooser.getSelectedFile().isFile()) {
-                inputFile = chooser.getSelectedFile();
-            } else {
+            for (File inputFile : inputFiles) {
+                if (!inputFile.isFile()) {
+                    JOptionPane.showMessageDialog(this,
+                            "This is not a file: " + inputFile.getName(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+            }
+        } else {
+            return;
+        }
+        createChecksumFiles(inputFiles, partLength, algorithm);
+    }
+
+    /**
+     * Checks that the files can be read and their ChecksumFiles written, and calculates, saves and adds them.
+     */
+    private void createChecksumFiles(File[] inputFiles, long partLength, String algorithm) {
+        // check input and output files
+        for (File inputFile : inputFiles) {
+            if (!inputFile.exists() || !inputFile.canRead()) {
                 JOptionPane.showMessageDialog(this,
-                        "This is not a file.",
+                        "Unable to read " + inputFile,
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            File outputFile = outputFileOf(inputFile);
+            if (!canWrite(outputFile)) {
+                JOptionPane.showMessageDialog(this,
+                        "Unable to write " + outputFile,
                         "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-        } else {
-            return;
         }
 
-        // select where to save the output file
-        outputFile = new File(inputFile.getAbsolutePath() + ".ccf");
+        // do the checksums
+        ProgressMonitor monitor = new ProgressMonitor(this, "Creating checksums", "", 0, 1000);
+        final BatchProgress progress = new BatchProgress(monitor);
+        ChecksumBatch batch = new ChecksumBatch(Arrays.asList(inputFiles), partLength, new String[]{algorithm}, progress);
+        progress.batch = batch;
+        batch.start();
+        try {
+            batch.await();
+        } catch (InterruptedException e) {
+            batch.cancel();
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                progress.monitor.close();
+            }
+        });
 
-        // check input file
-        if (!inputFile.exists() || !inputFile.canRead()) {
+        if (!progress.failed.isEmpty()) {
             JOptionPane.showMessageDialog(this,
-                    "Unable to read " + inputFile,
+                    "The checksum files of " + progress.failed + " were not completed.\n"
+                            + "The parts calculated so far have been saved, and creating the checksums\n"
+                            + "of the same files again will continue from them.",
                     "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private static File outputFileOf(File inputFile) {
+        return new File(inputFile.getAbsolutePath() + ".ccf");
+    }
+
+    private static boolean canWrite(File outputFile) {
+        try {
+            return (outputFile.exists() && outputFile.canWrite()) || (outputFile.createNewFile() && outputFile.canWrite());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Shows the progress of a ChecksumBatch and saves and adds its ChecksumFiles as they are completed.
+     */
+    private class BatchProgress implements ChecksumBatch.Listener {
+        private final ProgressMonitor monitor;
+        private final java.util.List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+        private volatile ChecksumBatch batch;
+
+        public BatchProgress(ProgressMonitor monitor) {
+            this.monitor = monitor;
+        }
+
+        public void progressChanged(long completedBytes, long totalBytes) {
+            final int permille = totalBytes == 0 ? 1000 : (int) (completedBytes * 1000 / totalBytes);
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    monitor.setProgress(permille);
+                    monitor.setNote("Completed " + (permille / 10) + "%");
+                    if (monitor.isCanceled() && batch != null) {
+                        batch.cancel();
+                    }
+                }
+            });
+        }
+
+        public void checksumFileCompleted(final ChecksumFile cf) {
+            final File outputFile = outputFileOf(cf.getSourceFile());
+            final boolean saved = new ChecksumFileLoader(cf).saveToFile(outputFile);
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    if (!saved) {
+                        JOptionPane.showMessageDialog(ComparisonPanel.this,
+                                "There was an error in writing " + outputFile,
+                                "Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                    addChecksumFile(cf);
+                }
+            });
+        }
+
+        public void checksumFileFailed(File sourceFile) {
+            failed.add(sourceFile.getName());
+        }
+    }
+
+    /**
+     * Samples some parts of many candidate copies of a file to estimate which of them are worth including, shows
+     * the estimate, and creates the ChecksumFiles of the recommended copies if the user accepts.
+     */
+    public void triageFiles() {
+        CreateChecksumsFileChooser chooser = new CreateChecksumsFileChooser();
+        chooser.setCurrentDirectory(Settings.getCurrentDirectory());
+        chooser.setMultiSelectionEnabled(true);
+        if (tableModel.getAlgorithm() != null && tableModel.getPartLength() > 0) {
+            chooser.setAlgorithm(tableModel.getAlgorithm());
+            chooser.setPartLength(tableModel.getPartLength());
+            chooser.setOptionsEnabled(false);
+        }
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION || chooser.getSelectedFiles().length == 0) {
             return;
         }
+        File[] inputFiles = chooser.getSelectedFiles();
+        Settings.setCurrentDirectory(inputFiles[0]);
 
-        // check output file
+        Triage triage = new Triage(Arrays.asList(inputFiles), chooser.getPartLength(), chooser.getAlgorithm());
         try {
-            if (!(outputFile.exists() && outputFile.canWrite()) && !(outputFile.createNewFile() && outputFile.canWrite())) {
-                JOptionPane.showMessageDialog(this,
-                        "Unable to write " + outputFile,
-                        "Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
+            triage.calculate();
         } catch (IOException e) {
             e.printStackTrace();
             JOptionPane.showMessageDialog(this,
-                    "Unable to write " + outputFile,
+                    "Unable to sample the files: " + e.getMessage(),
                     "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
+        java.util.List<File> recommended = triage.getRecommended();
+        int answer = JOptionPane.showConfirmDialog(this,
+                triage + "\nCreate the checksums of the " + recommended.size() + " recommended files?",
+                "Triage", JOptionPane.YES_NO_OPTION);
+        if (answer == JOptionPane.YES_OPTION) {
+            createChecksumFiles(recommended.toArray(new File[recommended.size()]), chooser.getPartLength(), chooser.getAlgorithm());
+        }
+    }
 
-        // do the checksums
-        ProgressMonitorRepository.set(new ProgressMonitor(this,
-                "Creating checksums", "", 0, 0));
+    /**
+     * Compares copies of a file on local disks byte by byte, without calculating checksums, and adds them to the
+     * Comparison. This is possible only in an empty Comparison, because the results can not be compared with
+     * checksums.
+     */
+    public void compareFilesDirectly() {
+        if (tableModel.getColumnCount() > 1) {
+            JOptionPane.showMessageDialog(this,
+                    "Copies can be compared directly only in an empty comparison.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        CreateChecksumsFileChooser chooser = new CreateChecksumsFileChooser();
+        chooser.setCurrentDirectory(Settings.getCurrentDirectory());
+        chooser.setMultiSelectionEnabled(true);
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File[] inputFiles = chooser.getSelectedFiles();
+        if (inputFiles.length < 2) {
+            JOptionPane.showMessageDialog(this,
+                    "Select at least two files to compare.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        Settings.setDefaultPartLength(chooser.getPartLength());
+        Settings.setCurrentDirectory(inputFiles[0]);
 
-        ChecksumFile cf = ChecksumFileFactory.createChecksumFile(inputFile, partLength, algorithm);
+        try {
+            for (ChecksumFile cf : DirectComparator.compare(Arrays.asList(inputFiles), chooser.getPartLength())) {
+                addChecksumFile(cf);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this,
+                    "Unable to compare the files: " + e.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
 
-        if (cf == null) {
+    /**
+     * Adds further copies of the compared files, reading each of them only at the parts where the files in the
+     * Comparison do not already agree. The ChecksumFiles are not saved, because they are incomplete.
+     */
+    public void addFilesLazily() {
+        if (tableModel.getFiles() < 2) {
             JOptionPane.showMessageDialog(this,
-                    "An error happened in making the checksum file.",
+                    "Add at least two files before adding copies lazily.",
                     "Error", JOptionPane.ERROR_MESSAGE);
-        } else {
-            if (!new ChecksumFileLoader(cf).saveToFile(outputFile)) {
+            return;
+        }
+        if (!tableModel.canCalculateChecksums()) {
+            JOptionPane.showMessageDialog(this,
+                    "Copies can not be added lazily to copies which were compared directly, "
+                            + "because they have no checksums.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setCurrentDirectory(Settings.getCurrentDirectory());
+        chooser.setMultiSelectionEnabled(true);
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File[] inputFiles = chooser.getSelectedFiles();
+        if (inputFiles.length == 0) {
+            inputFiles = new File[]{chooser.getSelectedFile()};
+        }
+        Settings.setCurrentDirectory(inputFiles[0]);
+
+        for (File inputFile : inputFiles) {
+            ProgressMonitorRepository.set(new ProgressMonitor(this,
+                    "Creating checksums for " + inputFile.getName(), "", 0, 100));
+            ChecksumFile cf = tableModel.createLazyChecksumFile(inputFile);
+            if (cf == ChecksumFileFactory.EMPTY_DATA) {
                 JOptionPane.showMessageDialog(this,
-                        "There was an error in writing " + outputFile,
+                        "Unable to read " + inputFile,
                         "Error", JOptionPane.ERROR_MESSAGE);
+                return;
             }
             addChecksumFile(cf);
-            System.out.println("OK");
         }
     }
 
@@ -412,11 +599,18 @@ public class ComparisonPanel extends TabPanel {
      * @param cf the ChecksumFile to be added
      */
     public void addChecksumFile(ChecksumFile cf) {
-        if (cf != null) {
-            tableModel.addFile(cf);
+        if (cf != null && !tableModel.addFile(cf)) {
+            showNotComparable(cf);
         }
     }
 
+    private void showNotComparable(ChecksumFile cf) {
+        JOptionPane.showMessageDialog(this,
+                "The checksums of \"" + cf.getSourceFile().getName() + "\" can not be compared with the files "
+                        + "in the comparison, because their algorithm or part length is different.",
+                "Error", JOptionPane.ERROR_MESSAGE);
+    }
+
     /**
      * Shows a file dialog for loading a ChecksumFile from a file.
      */
@@ -434,7 +628,9 @@ public class ComparisonPanel extends TabPanel {
             ChecksumFile cf = ChecksumFileLoader.loadFromFile(chooser.getSelectedFile());
             Settings.setCurrentDirectory(chooser.getSelectedFile());
             if (cf != null) {
-                tableModel.addFile(cf);
+                if (!tableModel.addFile(cf)) {
+                    showNotComparable(cf);
+                }
             } else {
                 JOptionPane.showMessageDialog(this,
                         "The file \"" + chooser.getSelectedFile().getName()
@@ -612,6 +808,27 @@ public class ComparisonPanel extends TabPanel {
         tableModel.markGoodParts(0, table.getRowCount() - 1);
     }
 
+    /**
+     * Splits the parts of the selected rows into shorter sub-parts.
+     */
+    public void zoomSelectedRows() {
+        if (!tableModel.canCalculateChecksums()) {
+            JOptionPane.showMessageDialog(this,
+                    "The parts of copies which were compared directly can not be zoomed, "
+                            + "because they have no checksums.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        tableModel.zoom(table.getSelectedRows());
+    }
+
+    /**
+     * Switches between comparing identical files as one column and showing each of them in its own column.
+     */
+    public void switchCollapseIdenticalFiles() {
+        tableModel.switchCollapseIdenticalFiles();
+    }
+
     /**
      * Sets all parts in the table to UNDEFINED.
      */
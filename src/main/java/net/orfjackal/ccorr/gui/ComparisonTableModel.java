@@ -10,6 +10,7 @@ import net.orfjackal.ccorr.comparison.*;
 
 import javax.swing.table.AbstractTableModel;
 import java.io.File;
+import java.util.Arrays;
 
 /**
  * A <code>TableModel</code> for showing a <code>Comparison</code> in a <code>JTable</code>.
@@ -39,6 +40,11 @@ public class ComparisonTableModel extends AbstractTableModel {
     private static final int SHOW_KILOBYTES = 2;
     private static final int SHOW_MEGABYTES = 3;
 
+    /**
+     * How many sub-parts a part is split into when zooming.
+     */
+    public static final int ZOOM_FACTOR = 16;
+
     /**
      * Creates a new instance of this class.
      *
@@ -89,6 +95,9 @@ public class ComparisonTableModel extends AbstractTableModel {
             }
         } else {
             result = this.comparison.getFile(columnIndex - 1).getSourceFile().getName();
+            int multiplicity = this.comparison.getMultiplicity(columnIndex - 1);
+            if (multiplicity > 1)
+                result += " (" + multiplicity + " copies)";
         }
         return result;
     }
@@ -104,6 +113,8 @@ public class ComparisonTableModel extends AbstractTableModel {
                 default:
                 case SHOW_PARTS:
                     result = Integer.toString(comparison.getPart(rowIndex) + 1);
+                    if (comparison.getSubPart(rowIndex) != Comparison.WHOLE_PART)
+                        result = result + "." + (comparison.getSubPart(rowIndex) + 1);
                     break;
                 case SHOW_BYTES:
                     result = comparison.getStartOffset(rowIndex)
@@ -254,9 +265,35 @@ public class ComparisonTableModel extends AbstractTableModel {
     /**
      * Represents the corresponding method in the comparison.
      */
-    public void addFile(ChecksumFile file) {
+    public boolean addFile(ChecksumFile file) {
+        if (!comparison.addFile(file))
+            return false;
+        isModified = true;
+        comparison.doCompare();
+        fireTableStructureChanged();
+        return true;
+    }
+
+    /**
+     * Represents the corresponding method in the comparison.
+     */
+    public boolean canCalculateChecksums() {
+        return comparison.canCalculateChecksums();
+    }
+
+    /**
+     * Represents the corresponding method in the comparison.
+     */
+    public ChecksumFile createLazyChecksumFile(File file) {
+        return comparison.createLazyChecksumFile(file);
+    }
+
+    /**
+     * Switches between collapsing identical files into one column and showing each file in its own column.
+     */
+    public void switchCollapseIdenticalFiles() {
         isModified = true;
-        comparison.addFile(file);
+        comparison.setCollapseIdenticalFiles(!comparison.isCollapsingIdenticalFiles());
         comparison.doCompare();
         fireTableStructureChanged();
     }
@@ -317,6 +354,24 @@ public class ComparisonTableModel extends AbstractTableModel {
         return successful;
     }
 
+    /**
+     * Splits the parts of the given rows into sub-parts which are about {@link #ZOOM_FACTOR} times shorter. When the
+     * factor does not divide the part length, the parts are split into somewhat more sub-parts.
+     */
+    public boolean zoom(int[] rows) {
+        long subPartLength = comparison.getSubPartLength(ZOOM_FACTOR);
+        int[] sorted = rows.clone();
+        Arrays.sort(sorted);
+        boolean successful = false;
+        for (int i = sorted.length - 1; i >= 0; i--)    // the rows after a zoomed row move
+            successful |= comparison.zoom(sorted[i], subPartLength);
+        if (successful) {
+            isModified = true;
+            fireTableDataChanged();
+        }
+        return successful;
+    }
+
     /**
      * Represents the corresponding method in the comparison.
      */
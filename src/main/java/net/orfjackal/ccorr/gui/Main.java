@@ -4,6 +4,8 @@
 
 package net.orfjackal.ccorr.gui;
 
+import net.orfjackal.ccorr.checksum.*;
+
 import java.util.logging.Logger;
 
 public class Main {
@@ -13,6 +15,8 @@ public class Main {
 
     public static void main(String[] args) {
         logger.info("Corruption Corrector: Starting");
+        ChecksumFileFactory.setCache(new ChecksumCache(ChecksumCache.DEFAULT_DIRECTORY));
+        ChecksumFileFactory.setCheckpointDirectory(ChecksumFileFactory.DEFAULT_CHECKPOINT_DIRECTORY);
         MainWindow.main(args);
         logger.info("Corruption Corrector: Started");
     }
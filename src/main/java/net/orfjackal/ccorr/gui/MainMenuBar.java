@@ -199,6 +199,79 @@ public class MainMenuBar extends JMenuBar {
         });
         menu.add(menuItem);
 
+        menuItem = new JMenuItem("Triage Candidate Copies", KeyEvent.VK_T);
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (parent.getSelectedTab() instanceof ComparisonPanel) {
+                    final ComparisonPanel panel = (ComparisonPanel) parent.getSelectedTab();
+                    Thread t = new Thread() {
+                        public void run() {
+                            panel.triageFiles();
+                        }
+                    };
+                    t.setPriority(Thread.NORM_PRIORITY);
+                    t.start();
+                }
+            }
+        });
+        menu.add(menuItem);
+
+        menuItem = new JMenuItem("Compare Copies Directly", KeyEvent.VK_C);
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (parent.getSelectedTab() instanceof ComparisonPanel) {
+                    final ComparisonPanel panel = (ComparisonPanel) parent.getSelectedTab();
+                    Thread t = new Thread() {
+                        public void run() {
+                            panel.compareFilesDirectly();
+                        }
+                    };
+                    t.setPriority(Thread.NORM_PRIORITY);
+                    t.start();
+                }
+            }
+        });
+        menu.add(menuItem);
+
+        menuItem = new JMenuItem("Add Copies Lazily", KeyEvent.VK_L);
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (parent.getSelectedTab() instanceof ComparisonPanel) {
+                    final ComparisonPanel panel = (ComparisonPanel) parent.getSelectedTab();
+                    Thread t = new Thread() {
+                        public void run() {
+                            panel.addFilesLazily();
+                        }
+                    };
+                    t.setPriority(Thread.NORM_PRIORITY);
+                    t.start();
+                }
+            }
+        });
+        menu.add(menuItem);
+
+        menuItem = new JMenuItem("Collapse/Expand Identical Copies", KeyEvent.VK_I);
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (parent.getSelectedTab() instanceof ComparisonPanel) {
+                    ComparisonPanel panel = (ComparisonPanel) parent.getSelectedTab();
+                    panel.switchCollapseIdenticalFiles();
+                }
+            }
+        });
+        menu.add(menuItem);
+
+        menuItem = new JMenuItem("Zoom Into Selected Parts", KeyEvent.VK_Z);
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (parent.getSelectedTab() instanceof ComparisonPanel) {
+                    ComparisonPanel panel = (ComparisonPanel) parent.getSelectedTab();
+                    panel.zoomSelectedRows();
+                }
+            }
+        });
+        menu.add(menuItem);
+
         menuItem = new JMenuItem("Mark All Undefined", KeyEvent.VK_U);
         menuItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
@@ -0,0 +1,161 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.io;
+
+import java.io.*;
+import java.nio.file.FileStore;
+
+/**
+ * One storage device and the number of jobs which may use it concurrently. The limit starts from what suits the kind
+ * of the device and is then adjusted by hill climbing while jobs are waiting for the device: the limit is changed by
+ * one, and the change is kept if the throughput did not drop, or undone if it did. After a step which made no
+ * difference or was undone, the limit is kept for a while before trying again.
+ */
+class Device {
+    static final long ADJUST_INTERVAL = 2L * 1000 * 1000 * 1000;  // 2 s in nanoseconds
+    private static final double SIGNIFICANT_CHANGE = 0.1;
+    static final int HOLD_PERIODS = 15;
+
+    enum Kind {
+        ROTATIONAL(1, 2),
+        SOLID_STATE(Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())), 16),
+        UNKNOWN(2, 4);
+
+        final int initialLimit;
+        final int maxLimit;
+
+        Kind(int initialLimit, int maxLimit) {
+            this.initialLimit = initialLimit;
+            this.maxLimit = maxLimit;
+        }
+    }
+
+    private final String name;
+    private final Kind kind;
+    private int limit;
+    private int active;
+    private boolean contended;
+    private int direction = 1;
+    private boolean probing;
+    private int hold;
+    private double lastThroughput;
+    private long windowStart = System.nanoTime();
+    private long windowBytes;
+
+    Device(String name, Kind kind) {
+        this.name = name;
+        this.kind = kind;
+        this.limit = kind.initialLimit;
+    }
+
+    /**
+     * Tells whether the device of a file store is a hard disk or an SSD, using the <code>queue/rotational</code> flag of
+     * Linux block devices. Partitions use the flag of their disk.
+     */
+    static Kind kindOf(FileStore store) {
+        File block = new File("/sys/class/block", new File(store.name()).getName());
+        if (!block.isDirectory())
+            return Kind.UNKNOWN;
+        try {
+            File flag = new File(block, "queue/rotational");
+            if (!flag.isFile())
+                flag = new File(block.getCanonicalFile().getParentFile(), "queue/rotational");
+            BufferedReader in = new BufferedReader(new FileReader(flag));
+            try {
+                String value = in.readLine();
+                if ("1".equals(value))
+                    return Kind.ROTATIONAL;
+                if ("0".equals(value))
+                    return Kind.SOLID_STATE;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // not a Linux block device
+        }
+        return Kind.UNKNOWN;
+    }
+
+    synchronized void acquire() throws InterruptedException {
+        if (active >= limit)
+            contended = true;
+        while (active >= limit)
+            wait();
+        active++;
+    }
+
+    synchronized void release() {
+        active--;
+        notifyAll();
+    }
+
+    synchronized void transferred(long bytes) {
+        windowBytes += bytes;
+        long now = System.nanoTime();
+        if (now - windowStart >= ADJUST_INTERVAL) {
+            measured(windowBytes * 1e9 / (now - windowStart), contended);
+            contended = false;
+            windowStart = now;
+            windowBytes = 0;
+        }
+    }
+
+    /**
+     * Adjusts the limit after a period whose throughput was measured. The limit is changed only if some job had to
+     * wait, because otherwise the limit was not what limited the throughput.
+     */
+    synchronized void measured(double throughput, boolean contended) {
+        if (contended) {
+            if (hold > 0) {
+                hold--;
+            } else if (!probing) {
+                if (!step()) {
+                    direction = -direction;
+                    step();
+                }
+                probing = true;
+            } else if (throughput > lastThroughput * (1 + SIGNIFICANT_CHANGE)) {
+                if (!step()) {
+                    probing = false;
+                    hold = HOLD_PERIODS;
+                }
+            } else {
+                if (throughput < lastThroughput * (1 - SIGNIFICANT_CHANGE)) {
+                    direction = -direction;
+                    step();
+                }
+                probing = false;
+                hold = HOLD_PERIODS;
+            }
+            notifyAll();
+        }
+        lastThroughput = throughput;
+    }
+
+    /**
+     * Moves the limit one step in the current direction.
+     *
+     * @return false if the limit is already at its minimum or maximum
+     */
+    private boolean step() {
+        int newLimit = Math.max(1, Math.min(kind.maxLimit, limit + direction));
+        boolean changed = newLimit != limit;
+        limit = newLimit;
+        return changed;
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,138 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.io;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Limits how many jobs read or write the same device at the same time. Jobs on a hard disk are run one at a time,
+ * because reading several files of the same disk in parallel makes it seek back and forth, but jobs on SSDs and on
+ * different devices run in parallel. The limits are adjusted from the measured throughput of each device.
+ * <p/>
+ * A job takes a {@link Permit} for the file it reads or writes, reports the bytes it transfers to it, and releases it
+ * when done. A thread must not take a second permit of the same device while it holds one.
+ */
+public class IOScheduler {
+    private final static Logger logger = Logger.getLogger(IOScheduler.class.getName());
+
+    private static volatile IOScheduler defaultScheduler = new IOScheduler();
+
+    private final Map<FileStore, Device> devices = new HashMap<FileStore, Device>();
+    private final Device unknownDevice = new Device("unknown", Device.Kind.UNKNOWN);
+
+    public static IOScheduler getDefault() {
+        return defaultScheduler;
+    }
+
+    public static void setDefault(IOScheduler scheduler) {
+        defaultScheduler = scheduler;
+    }
+
+    /**
+     * Waits until the device of the file may be used by one more job.
+     */
+    public Permit acquire(File file) throws InterruptedIOException {
+        return acquire(getDevice(file));
+    }
+
+    Permit acquire(Device device) throws InterruptedIOException {
+        try {
+            device.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for " + device);
+        }
+        return new Permit(device);
+    }
+
+    /**
+     * Waits until the devices of all the files may be used by one more job, for a job which reads the files side by
+     * side. One permit is taken per device, because a thread must not hold two permits of the same device, so the files
+     * on the same device share a permit. The devices are acquired in the order of their names, so that two such jobs
+     * do not wait for each other. Returns the permits in the order of the files.
+     */
+    public List<Permit> acquireAll(List<File> files) throws InterruptedIOException {
+        List<Device> devices = new ArrayList<Device>();
+        for (File file : files)
+            devices.add(getDevice(file));
+        return acquireDevices(devices);
+    }
+
+    List<Permit> acquireDevices(List<Device> devices) throws InterruptedIOException {
+        List<Device> order = new ArrayList<Device>(new LinkedHashSet<Device>(devices));
+        Collections.sort(order, new Comparator<Device>() {
+            public int compare(Device d1, Device d2) {
+                int byName = d1.toString().compareTo(d2.toString());
+                return byName != 0 ? byName : Integer.compare(System.identityHashCode(d1), System.identityHashCode(d2));
+            }
+        });
+        Map<Device, Permit> permits = new IdentityHashMap<Device, Permit>();
+        try {
+            for (Device device : order)
+                permits.put(device, acquire(device));
+        } catch (InterruptedIOException e) {
+            for (Permit permit : permits.values())
+                permit.release();
+            throw e;
+        }
+        List<Permit> result = new ArrayList<Permit>();
+        for (Device device : devices)
+            result.add(permits.get(device));
+        return result;
+    }
+
+    Device getDevice(File file) {
+        FileStore store = getFileStore(file);
+        if (store == null)
+            return unknownDevice;
+        synchronized (devices) {
+            Device device = devices.get(store);
+            if (device == null) {
+                device = new Device(store.name(), Device.kindOf(store));
+                devices.put(store, device);
+                logger.log(Level.INFO, "IOScheduler: {0} is {1}", new Object[]{device, device.getKind()});
+            }
+            return device;
+        }
+    }
+
+    private static FileStore getFileStore(File file) {
+        for (File f = file.getAbsoluteFile(); f != null; f = f.getParentFile()) {
+            if (f.exists()) {
+                try {
+                    return Files.getFileStore(f.toPath());
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The right of one job to use a device. Releasing it more than once has no effect.
+     */
+    public static class Permit {
+        private final Device device;
+        private boolean released;
+
+        Permit(Device device) {
+            this.device = device;
+        }
+
+        public void transferred(long bytes) {
+            device.transferred(bytes);
+        }
+
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                device.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.io;
+
+import java.io.*;
+
+/**
+ * Reads a file so that each read waits for the throttle and for its turn to use the device. It should be buffered
+ * with large buffers, because a permit is taken for every read.
+ */
+public class ScheduledInputStream extends FilterInputStream {
+    private final IOScheduler scheduler;
+    private final Device device;
+    private final Throttle throttle;
+
+    public ScheduledInputStream(File file, IOScheduler scheduler) throws FileNotFoundException {
+        this(file, scheduler, new Throttle());
+    }
+
+    public ScheduledInputStream(File file, IOScheduler scheduler, Throttle throttle) throws FileNotFoundException {
+        super(new FileInputStream(file));
+        this.scheduler = scheduler;
+        this.device = scheduler.getDevice(file);
+        this.throttle = throttle;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        throttle.acquire(len);
+        IOScheduler.Permit permit = scheduler.acquire(device);
+        try {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                permit.transferred(n);
+            return n;
+        } finally {
+            permit.release();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.io;
+
+import java.io.*;
+
+/**
+ * Writes a file so that each write waits for the throttle and for its turn to use the device. It should be buffered
+ * with large buffers, because a permit is taken for every write.
+ */
+public class ScheduledOutputStream extends FilterOutputStream {
+    private final IOScheduler scheduler;
+    private final Device device;
+    private final Throttle throttle;
+
+    public ScheduledOutputStream(File file, IOScheduler scheduler) throws FileNotFoundException {
+        this(file, scheduler, new Throttle());
+    }
+
+    public ScheduledOutputStream(File file, IOScheduler scheduler, Throttle throttle) throws FileNotFoundException {
+        super(new FileOutputStream(file, false));
+        this.scheduler = scheduler;
+        this.device = scheduler.getDevice(file);
+        this.throttle = throttle;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        throttle.acquire(len);
+        IOScheduler.Permit permit = scheduler.acquire(device);
+        try {
+            out.write(b, off, len);
+            permit.transferred(len);
+        } finally {
+            permit.release();
+        }
+    }
+}
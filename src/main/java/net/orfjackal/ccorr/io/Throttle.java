@@ -0,0 +1,90 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.io;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the bytes per second and the I/O operations per second of a job, so that it leaves disk bandwidth to other
+ * programs. The limits are token buckets which hold at most one second's worth of tokens. An operation may take more
+ * tokens than there are, after which the next operations wait until the debt has been paid back. The limits can be
+ * changed while the job is running. A limit of {@link #UNLIMITED} turns it off.
+ */
+public class Throttle {
+    public static final long UNLIMITED = 0;
+
+    private long bytesPerSecond;
+    private long operationsPerSecond;
+    private double byteTokens;
+    private double operationTokens;
+    private long lastRefill = System.nanoTime();
+
+    public Throttle() {
+        this(UNLIMITED, UNLIMITED);
+    }
+
+    public Throttle(long bytesPerSecond, long operationsPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.operationsPerSecond = operationsPerSecond;
+    }
+
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        byteTokens = 0;
+        notifyAll();
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized void setOperationsPerSecond(long operationsPerSecond) {
+        this.operationsPerSecond = operationsPerSecond;
+        operationTokens = 0;
+        notifyAll();
+    }
+
+    public synchronized long getOperationsPerSecond() {
+        return operationsPerSecond;
+    }
+
+    /**
+     * Waits until one operation of the given number of bytes is allowed.
+     */
+    public synchronized void acquire(long bytes) throws InterruptedIOException {
+        while (true) {
+            refill();
+            long waitNanos = Math.max(nanosUntilPaid(byteTokens, bytesPerSecond), nanosUntilPaid(operationTokens, operationsPerSecond));
+            if (waitNanos == 0) {
+                if (bytesPerSecond != UNLIMITED)
+                    byteTokens -= bytes;
+                if (operationsPerSecond != UNLIMITED)
+                    operationTokens -= 1;
+                return;
+            }
+            try {
+                wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double seconds = (now - lastRefill) / 1e9;
+        lastRefill = now;
+        if (bytesPerSecond != UNLIMITED)
+            byteTokens = Math.min(bytesPerSecond, byteTokens + seconds * bytesPerSecond);
+        if (operationsPerSecond != UNLIMITED)
+            operationTokens = Math.min(operationsPerSecond, operationTokens + seconds * operationsPerSecond);
+    }
+
+    private static long nanosUntilPaid(double tokens, long perSecond) {
+        if (perSecond == UNLIMITED || tokens >= 0)
+            return 0;
+        return Math.max(1, (long) (-tokens * 1e9 / perSecond));
+    }
+}
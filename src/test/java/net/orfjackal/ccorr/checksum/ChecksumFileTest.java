@@ -4,12 +4,14 @@
 
 package net.orfjackal.ccorr.checksum;
 
+import net.orfjackal.ccorr.crc.*;
 import net.orfjackal.ccorr.gui.ProgressMonitorRepository;
 import net.orfjackal.ccorr.utils.TestDataUtil;
 import org.junit.*;
 
 import javax.swing.*;
 import java.io.*;
+import java.util.*;
 
 import static net.orfjackal.ccorr.utils.TestDataUtil.*;
 import static org.mockito.Mockito.*;
@@ -96,6 +98,143 @@ public class ChecksumFileTest extends Assert {
         verify(monitor, atLeastOnce()).setProgress(100);
     }
 
+    @Test
+    public void calculating_the_checksums_in_parallel_gives_the_same_result_as_serially() throws IOException {
+        File file = util.createDummyFile(PART_LENGTH * 50 - 10);
+
+        ChecksumFile serial = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM, CalculationMode.SERIAL);
+        ChecksumFile parallel = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM, CalculationMode.PARALLEL);
+
+        assertEquals(serial.getParts(), parallel.getParts());
+        for (int part = 0; part < serial.getParts(); part++)
+            assertEquals(serial.getChecksum(part), parallel.getChecksum(part));
+        assertEquals(serial.getAlgorithm(), parallel.getAlgorithm());
+        assertEquals(serial.getPartLength(), parallel.getPartLength());
+        assertEquals(serial.getSourceFileLength(), parallel.getSourceFileLength());
+    }
+
+    @Test
+    public void calculating_the_checksums_in_a_pipeline_gives_the_same_result_as_serially() throws IOException {
+        File file = util.createDummyFile(PART_LENGTH * 50 - 10);
+        corruptDataAtOffsets(file, START_OFFSET_1, START_OFFSET_2 + 500, PART_LENGTH * 49);
+        ChecksumFile serial = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM, CalculationMode.SERIAL);
+
+        int hashers = 3;
+        int bufferLength = 300;
+        ChecksumFile pipelined = new PipelinedChecksumsCalculator(new FileDivider(file, PART_LENGTH), hashers, bufferLength, ALGORITHM).calculateChecksums();
+
+        assertEquals(serial.getParts(), pipelined.getParts());
+        for (int part = 0; part < serial.getParts(); part++)
+            assertEquals(serial.getChecksum(part), pipelined.getChecksum(part));
+        assertEquals(serial.getSourceFileLength(), pipelined.getSourceFileLength());
+    }
+
+    @Test
+    public void the_parts_can_be_read_with_positional_reads_and_memory_mapping() throws IOException {
+        File file = util.createDummyFile(PART_LENGTH * 10 - 10);
+        ChecksumFile expected = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM);
+
+        for (PartSource source : new PartSource[]{new ChannelPartSource(), new MappedPartSource()}) {
+            FileDivider divider = new FileDivider(file, PART_LENGTH, source);
+            ChecksumFile actual = new FileChecksumsCalculator(divider, new CRC(CRCAlgorithmFactory.getByName(ALGORITHM))).calculateChecksums();
+
+            assertEquals(expected.getParts(), actual.getParts());
+            for (int part = 0; part < expected.getParts(); part++)
+                assertEquals(expected.getChecksum(part), actual.getChecksum(part));
+        }
+    }
+
+    @Test
+    public void parts_longer_than_the_read_buffer_are_hashed_one_chunk_at_a_time() throws IOException {
+        int partLength = FileDivider.CHUNK_LENGTH * 2 + 100;
+        File file = util.createDummyFile(partLength * 2 - 10);
+        ChecksumFile cf = ChecksumFileFactory.createChecksumFile(file, partLength, ALGORITHM);
+
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(data);
+        in.close();
+        CRC crc = new CRC(CRCAlgorithmFactory.getByName(ALGORITHM));
+        assertEquals(2, cf.getParts());
+        assertEquals(crc.calculateChecksum(new Buffer(Arrays.copyOfRange(data, 0, partLength), partLength)), cf.getChecksum(0));
+        assertEquals(crc.calculateChecksum(new Buffer(Arrays.copyOfRange(data, partLength, data.length), data.length - partLength)), cf.getChecksum(1));
+    }
+
+    @Test
+    public void the_checksums_are_stored_in_binary_and_formatted_as_hex_when_needed() throws IOException {
+        File file = util.uniqueFile();
+        OutputStream out = new FileOutputStream(file);
+        out.write(new byte[PART_LENGTH]);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        ChecksumFile crc32 = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, "CRC-32");
+        assertEquals("0x00", crc32.getChecksum(0));
+        assertEquals("55BC801D", crc32.getChecksum(1));
+
+        ChecksumFile md5 = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, "MD5");
+        assertEquals("0x00", md5.getChecksum(0));
+        assertEquals("5289df737df57326fcdd22597afb1fac", md5.getChecksum(1));
+    }
+
+    @Test
+    public void several_algorithms_can_be_calculated_with_one_read_of_the_file() throws IOException {
+        File file = util.createDummyFile(PART_LENGTH * 3 - 10);
+        String[] algorithms = {"CRC-32", "SHA-1"};
+
+        for (CalculationMode mode : CalculationMode.values()) {
+            ChecksumFile both = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, algorithms, mode);
+            assertArrayEquals(algorithms, both.getAlgorithms());
+            assertEquals("CRC-32", both.getAlgorithm());
+            for (String algorithm : algorithms) {
+                ChecksumFile single = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, algorithm);
+                for (int part = 0; part < single.getParts(); part++)
+                    assertEquals(single.getChecksum(part), both.getChecksum(part, algorithm));
+            }
+            assertNull(both.getChecksum(0, "MD5"));
+        }
+    }
+
+    @Test
+    public void the_checksums_of_longer_parts_are_derived_from_the_hash_tree() throws IOException {
+        File file = util.uniqueFile();
+        OutputStream out = new FileOutputStream(file);
+        out.write(new byte[PART_LENGTH * 5]);
+        out.close();
+        TestDataUtil.corruptDataAtOffsets(file, START_OFFSET_1 + 10);
+        FileOutputStream append = new FileOutputStream(file, true);
+        append.write(new byte[]{1, 2, 3});
+        append.close();
+
+        for (String algorithm : new String[]{"CRC-32", "CRC-32C"}) {
+            ChecksumFile cf = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, algorithm);
+            for (int level = 1; level <= HashTree.LEVELS; level++) {
+                ChecksumFile longer = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH << level, algorithm);
+                Checksums derived = cf.getChecksums(algorithm, PART_LENGTH << level);
+                assertEquals(longer.getParts(), derived.size());
+                for (int part = 0; part < longer.getParts(); part++)
+                    assertEquals(longer.getChecksum(part), derived.get(part));
+            }
+        }
+    }
+
+    @Test
+    public void the_hash_tree_of_other_algorithms_is_a_hash_of_the_child_checksums() throws IOException {
+        File file1 = util.createDummyFile(PART_LENGTH * 9);
+        File file2 = util.createDummyFile(PART_LENGTH * 9);
+        TestDataUtil.corruptDataAtOffsets(file2, START_OFFSET_1);
+        ChecksumFile cf1 = ChecksumFileFactory.createChecksumFile(file1, PART_LENGTH, "SHA-1");
+        ChecksumFile cf2 = ChecksumFileFactory.createChecksumFile(file2, PART_LENGTH, "SHA-1");
+
+        HashTree tree1 = cf1.getHashTree("SHA-1");
+        HashTree tree2 = cf2.getHashTree("SHA-1");
+        assertFalse(tree1.isExact());
+        assertEquals(2, tree1.getLevel(HashTree.LEVELS).size());
+        assertFalse(tree1.getLevel(HashTree.LEVELS).equals(0, tree2.getLevel(HashTree.LEVELS), 0));
+        assertTrue(tree1.getLevel(HashTree.LEVELS).equals(1, tree2.getLevel(HashTree.LEVELS), 1));
+        assertTrue(tree1.getLevel(1).equals(1, tree2.getLevel(1), 1));
+    }
+
     @Test
     public void can_be_saved_to_a_file_and_loaded_from_it() throws IOException {
         ChecksumFile original = util.createChecksumFile(PART_LENGTH * 2);
@@ -106,6 +245,7 @@ public class ChecksumFileTest extends Assert {
 
         assertEquals(original.getParts(), loaded.getParts());
         assertEquals(original.getChecksum(0), loaded.getChecksum(0));
+        assertEquals(original.getChecksum(1), loaded.getChecksum(1));
         assertEquals(original.getAlgorithm(), loaded.getAlgorithm());
         assertEquals(original.getPartLength(), loaded.getPartLength());
         assertEquals(original.getSourceFile(), loaded.getSourceFile());
@@ -134,4 +274,209 @@ public class ChecksumFileTest extends Assert {
 
         assertEquals(original, cfMoved.getSourceFile());
     }
+
+    @Test
+    public void a_growing_file_is_followed_by_hashing_only_the_new_data_and_the_trailing_part() throws IOException {
+        final List<ChecksumFile> updates = new ArrayList<ChecksumFile>();
+        File file = util.createDummyFile(PART_LENGTH * 2 + 100);
+        ChecksumFileFollower follower = new ChecksumFileFollower(file, PART_LENGTH, ALGORITHM, new ChecksumFileFollower.Listener() {
+            public void checksumFileUpdated(ChecksumFile checksumFile) {
+                updates.add(checksumFile);
+            }
+        });
+
+        assertTrue(follower.poll());
+        assertEquals(3, updates.get(0).getParts());
+        assertEquals(PART_LENGTH * 2 + 100, updates.get(0).getSourceFileLength());
+        assertFalse(follower.poll());
+
+        appendDummyData(file, PART_LENGTH * 4);
+        assertTrue(follower.poll());
+        ChecksumFile grown = updates.get(1);
+        ChecksumFile expected = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM);
+        assertEquals(expected.getParts(), grown.getParts());
+        for (int part = 0; part < expected.getParts(); part++)
+            assertEquals(expected.getChecksum(part), grown.getChecksum(part));
+        assertEquals(3, updates.get(0).getParts());
+    }
+
+    @Test
+    public void the_checksums_of_an_empty_file_can_be_calculated_in_every_mode() throws IOException {
+        File file = util.createDummyFile(0);
+        for (CalculationMode mode : CalculationMode.values()) {
+            ChecksumFile cf = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM, mode);
+            assertNotSame(mode.toString(), ChecksumFileFactory.EMPTY_DATA, cf);
+            assertEquals(mode.toString(), 0, cf.getParts());
+        }
+    }
+
+    @Test
+    public void a_followed_file_shorter_than_one_part_is_not_reported_again_until_it_grows() throws IOException {
+        final List<ChecksumFile> updates = new ArrayList<ChecksumFile>();
+        File file = util.createDummyFile(100);
+        ChecksumFileFollower follower = new ChecksumFileFollower(file, PART_LENGTH, ALGORITHM, new ChecksumFileFollower.Listener() {
+            public void checksumFileUpdated(ChecksumFile checksumFile) {
+                updates.add(checksumFile);
+            }
+        });
+
+        assertTrue(follower.poll());
+        assertFalse(follower.poll());
+        assertEquals(1, updates.size());
+
+        appendDummyData(file, 200);
+        assertTrue(follower.poll());
+        assertEquals(200, updates.get(1).getSourceFileLength());
+    }
+
+    @Test
+    public void a_cancelled_calculation_is_continued_from_its_checkpoint() throws IOException {
+        File file = util.createDummyFile(PART_LENGTH * 10);
+        File checkpoint = ChecksumCheckpoint.fileFor(file.getParentFile(), file);
+
+        assertSame(ChecksumFileFactory.EMPTY_DATA, new CancelledCalculator(file, 4).calculateChecksums());
+        assertTrue(checkpoint.isFile());
+
+        CancelledCalculator resumed = new CancelledCalculator(file, -1);
+        ChecksumFile cf = resumed.calculateChecksums();
+        assertEquals(4, resumed.firstProgress);
+        assertFalse(checkpoint.exists());
+        ChecksumFile expected = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM);
+        assertEquals(expected.getParts(), cf.getParts());
+        for (int part = 0; part < expected.getParts(); part++)
+            assertEquals(expected.getChecksum(part), cf.getChecksum(part));
+    }
+
+    @Test
+    public void the_checkpoints_are_saved_in_the_checkpoint_directory_and_not_next_to_the_file() throws IOException {
+        File directory = new File(util.uniqueFile().getParentFile(), "checkpoints");
+        File file = util.createDummyFile(PART_LENGTH * 10);
+        File copy = new File(new File(file.getParentFile(), "copy"), file.getName());
+        File checkpoint = ChecksumCheckpoint.fileFor(directory, file);
+
+        assertEquals(directory, checkpoint.getParentFile());
+        assertFalse(checkpoint.equals(ChecksumCheckpoint.fileFor(directory, copy)));
+        CancelledCalculator cancelled = new CancelledCalculator(file, 4);
+        cancelled.setCheckpointFile(checkpoint, 0);
+        cancelled.calculateChecksums();
+        assertTrue(checkpoint.isFile());
+        assertFalse(new File(file.getPath() + ChecksumCheckpoint.SUFFIX).exists());
+    }
+
+    @Test
+    public void the_checkpoint_is_not_used_if_the_file_has_changed() throws IOException {
+        File file = util.createDummyFile(PART_LENGTH * 10);
+        new CancelledCalculator(file, 4).calculateChecksums();
+        long lastModified = file.lastModified();
+        corruptDataAtOffsets(file, START_OFFSET_1);
+        assertTrue(file.setLastModified(lastModified));
+
+        CancelledCalculator resumed = new CancelledCalculator(file, -1);
+        ChecksumFile cf = resumed.calculateChecksums();
+        assertEquals(0, resumed.firstProgress);
+        assertFalse(cf.getChecksum(0).equals(cf.getChecksum(1)));
+    }
+
+    @Test
+    public void an_unchanged_file_is_not_read_again_if_its_checksums_are_in_the_cache() throws IOException {
+        ChecksumFileFactory.setCache(new ChecksumCache(util.uniqueFile()));
+        try {
+            File file = util.createDummyFile(PART_LENGTH * 4);
+            ChecksumFile original = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM);
+
+            ProgressMonitor monitor = spy(new ProgressMonitor(null, null, null, 0, 0));
+            ProgressMonitorRepository.set(monitor);
+            ChecksumFile cached = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM);
+            verify(monitor, never()).setProgress(anyInt());
+            assertEquals(original.getParts(), cached.getParts());
+            assertEquals(original.getChecksum(3), cached.getChecksum(3));
+
+            long lastModified = file.lastModified();
+            corruptDataAtOffsets(file, START_OFFSET_3);
+            assertTrue(file.setLastModified(lastModified + 2000));
+            ChecksumFile changed = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM);
+            assertFalse(original.getChecksum(3).equals(changed.getChecksum(3)));
+        } finally {
+            ChecksumFileFactory.setCache(null);
+        }
+    }
+
+    @Test
+    public void only_the_appended_parts_of_a_cached_file_are_read() throws IOException {
+        ChecksumFileFactory.setCache(new ChecksumCache(util.uniqueFile()));
+        try {
+            File file = util.createDummyFile(PART_LENGTH * 4 + 100);
+            ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM);
+            appendDummyData(file, PART_LENGTH * 8);
+
+            ProgressMonitor monitor = spy(new ProgressMonitor(null, null, null, 0, 0));
+            ProgressMonitorRepository.set(monitor);
+            ChecksumFile grown = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM);
+            verify(monitor, never()).setProgress(0);
+            verify(monitor).setProgress(50);
+
+            ChecksumFileFactory.setCache(null);
+            ChecksumFile expected = ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM);
+            assertEquals(expected.getParts(), grown.getParts());
+            for (int part = 0; part < expected.getParts(); part++)
+                assertEquals(expected.getChecksum(part), grown.getChecksum(part));
+        } finally {
+            ChecksumFileFactory.setCache(null);
+        }
+    }
+
+    @Test
+    public void many_files_can_be_calculated_concurrently_as_one_batch() throws Exception {
+        File file1 = util.createDummyFile(PART_LENGTH * 3);
+        File file2 = util.createDummyFile(PART_LENGTH * 5 + 10);
+        File missing = util.uniqueFile();
+        corruptDataAtOffsets(file2, START_OFFSET_1);
+        final Map<File, ChecksumFile> completed = Collections.synchronizedMap(new HashMap<File, ChecksumFile>());
+        final List<File> failed = Collections.synchronizedList(new ArrayList<File>());
+        final long[] lastProgress = new long[2];
+
+        ChecksumBatch batch = new ChecksumBatch(Arrays.asList(file1, file2, missing), PART_LENGTH, new String[]{ALGORITHM}, new ChecksumBatch.Listener() {
+            public synchronized void progressChanged(long completedBytes, long totalBytes) {
+                lastProgress[0] = Math.max(lastProgress[0], completedBytes);
+                lastProgress[1] = totalBytes;
+            }
+
+            public void checksumFileCompleted(ChecksumFile checksumFile) {
+                completed.put(checksumFile.getSourceFile(), checksumFile);
+            }
+
+            public void checksumFileFailed(File sourceFile) {
+                failed.add(sourceFile);
+            }
+        });
+        batch.start();
+        batch.await();
+
+        assertEquals(Arrays.asList(missing), failed);
+        assertEquals(2, completed.size());
+        ChecksumFile cf2 = completed.get(file2);
+        assertEquals(6, cf2.getParts());
+        assertFalse(cf2.getChecksum(0).equals(cf2.getChecksum(1)));
+        assertEquals(file1.length() + file2.length(), lastProgress[1]);
+        assertEquals(lastProgress[1], lastProgress[0]);
+    }
+
+    private static class CancelledCalculator extends FileChecksumsCalculator {
+        private final int cancelAt;
+        private int firstProgress = -1;
+
+        public CancelledCalculator(File file, int cancelAt) {
+            super(new FileDivider(file, PART_LENGTH), new CRC(CRCAlgorithmFactory.getByName(ALGORITHM)));
+            this.cancelAt = cancelAt;
+            setCheckpointFile(ChecksumCheckpoint.fileFor(file.getParentFile(), file), 0);
+        }
+
+        @Override
+        protected void updateProgress(int completedParts) throws IOException {
+            if (firstProgress < 0)
+                firstProgress = completedParts;
+            if (completedParts == cancelAt)
+                throw new InterruptedIOException("Cancelled");
+        }
+    }
 }
@@ -127,6 +127,39 @@ public class CombiningGoodPartsTest extends Assert {
         assertEquals(Mark.GOOD, c.getMark(DIFF_1, 2));
     }
 
+    @Test
+    public void when_a_part_is_corrupt_in_every_file_then_it_can_be_zoomed_into_sub_parts_to_find_a_good_combination() throws IOException {
+        int subPartLength = PART_LENGTH / 16;
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1 + 10));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, END_OFFSET_1 - 10));
+        c.doCompare();
+        assertEquals(1, c.getDifferences());
+
+        assertTrue(c.zoom(DIFF_0, subPartLength));
+        assertEquals(2, c.getDifferences());
+        assertEquals(1, c.getPart(DIFF_0));
+        assertEquals(0, c.getSubPart(DIFF_0));
+        assertEquals(START_OFFSET_1, c.getStartOffset(DIFF_0));
+        assertEquals(START_OFFSET_1 + subPartLength - 1, c.getEndOffset(DIFF_0));
+        assertEquals(15, c.getSubPart(DIFF_1));
+        assertEquals(END_OFFSET_1, c.getEndOffset(DIFF_1));
+        assertFalse(c.zoom(DIFF_0, subPartLength));
+
+        c.setMark(DIFF_0, 1, Mark.GOOD);
+        c.setMark(DIFF_1, 0, Mark.GOOD);
+        File file = util.uniqueFile();
+        BufferedOutputStream result = StreamFactory.openOutputStream(file);
+        getGoodCombination(c);
+        new GoodCombinationWriter(goodCombination).writeCombination(result);
+
+        Comparison check = new Comparison();
+        check.addFile(util.createChecksumFile(PART_LENGTH * 3));
+        check.addFile(ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM));
+        check.doCompare();
+        assertEquals(0, check.getDifferences());
+    }
+
     @Test
     public void when_a_good_combination_is_written_then_the_progress_monitor_is_notified() throws IOException {
         Comparison c = comparisonWithTwoDiffsMarkedGood();
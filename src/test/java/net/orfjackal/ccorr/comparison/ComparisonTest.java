@@ -5,11 +5,16 @@
 package net.orfjackal.ccorr.comparison;
 
 import net.orfjackal.ccorr.utils.TestDataUtil;
+import net.orfjackal.ccorr.checksum.CalculationMode;
 import net.orfjackal.ccorr.checksum.ChecksumFile;
+import net.orfjackal.ccorr.checksum.ChecksumFileFollower;
 import net.orfjackal.ccorr.checksum.ChecksumFileFactory;
+import net.orfjackal.ccorr.checksum.DirectComparator;
 import org.junit.*;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.Executor;
 
 import static net.orfjackal.ccorr.utils.TestDataUtil.*;
 
@@ -89,11 +94,11 @@ public class ComparisonTest extends Assert {
     @Test
     public void files_with_different_part_length_can_not_be_added_to_the_comparison() throws IOException {
         Comparison c = new Comparison();
-        File file1 = util.createDummyFile(PART_LENGTH * 2);
-        File file2 = util.createDummyFile(PART_LENGTH * 2);
+        File file1 = util.createDummyFile(PART_LENGTH * 3);
+        File file2 = util.createDummyFile(PART_LENGTH * 3);
 
         ChecksumFile cf1 = ChecksumFileFactory.createChecksumFile(file1, PART_LENGTH, ALGORITHM);
-        ChecksumFile cf2 = ChecksumFileFactory.createChecksumFile(file2, PART_LENGTH * 2, ALGORITHM);
+        ChecksumFile cf2 = ChecksumFileFactory.createChecksumFile(file2, PART_LENGTH * 3, ALGORITHM);
 
         c.addFile(cf1);
         c.addFile(cf2);
@@ -102,6 +107,37 @@ public class ComparisonTest extends Assert {
         assertEquals(cf1, c.getFile(0));
     }
 
+    @Test
+    public void files_whose_part_lengths_differ_by_a_power_of_two_are_compared_at_the_longer_part_length() throws IOException {
+        Comparison c = new Comparison();
+        File file1 = util.createDummyFile(PART_LENGTH * 10 - 10);
+        File file2 = util.createDummyFile(PART_LENGTH * 10 - 10);
+        TestDataUtil.corruptDataAtOffsets(file2, START_OFFSET_3);
+
+        c.addFile(ChecksumFileFactory.createChecksumFile(file1, PART_LENGTH, ALGORITHM));
+        c.addFile(ChecksumFileFactory.createChecksumFile(file2, PART_LENGTH * 4, ALGORITHM));
+        c.doCompare();
+
+        assertEquals(2, c.getFilesCount());
+        assertEquals(PART_LENGTH * 4, c.getPartLength());
+        assertEquals(1, c.getDifferences());
+        assertEquals(0, c.getPart(0));
+        assertEquals(0, c.getStartOffset(0));
+        assertEquals(PART_LENGTH * 4 - 1, c.getEndOffset(0));
+    }
+
+    @Test
+    public void files_with_different_part_length_can_not_be_compared_if_their_checksums_can_not_be_combined() throws IOException {
+        Comparison c = new Comparison();
+        File file1 = util.createDummyFile(PART_LENGTH * 4);
+        File file2 = util.createDummyFile(PART_LENGTH * 4);
+
+        c.addFile(ChecksumFileFactory.createChecksumFile(file1, PART_LENGTH, "MD5"));
+        c.addFile(ChecksumFileFactory.createChecksumFile(file2, PART_LENGTH * 2, "MD5"));
+
+        assertEquals(1, c.getFilesCount());
+    }
+
     @Test
     public void files_with_different_algorithm_can_not_be_added_to_the_comparison() throws IOException {
         Comparison c = new Comparison();
@@ -118,6 +154,24 @@ public class ComparisonTest extends Assert {
         assertEquals(cf1, c.getFile(0));
     }
 
+    @Test
+    public void files_which_share_one_of_their_algorithms_are_compared_using_it() throws IOException {
+        Comparison c = new Comparison();
+        File file1 = util.createDummyFile(PART_LENGTH * 2);
+        File file2 = util.createDummyFile(PART_LENGTH * 2);
+
+        ChecksumFile cf1 = ChecksumFileFactory.createChecksumFile(file1, PART_LENGTH, new String[]{"MD5", "CRC-32"}, CalculationMode.SERIAL);
+        ChecksumFile cf2 = ChecksumFileFactory.createChecksumFile(file2, PART_LENGTH, "CRC-32");
+
+        c.addFile(cf1);
+        c.addFile(cf2);
+        c.doCompare();
+
+        assertEquals(2, c.getFilesCount());
+        assertEquals("CRC-32", c.getAlgorithm());
+        assertEquals(0, c.getDifferences());
+    }
+
     @Test
     public void when_files_are_identical_then_they_have_no_differences() throws IOException {
         Comparison c = new Comparison();
@@ -241,4 +295,364 @@ public class ComparisonTest extends Assert {
         assertEquals(original.getMark(0, 0), original.getMark(0, 0));
         assertEquals(original.getMark(0, 1), original.getMark(0, 1));
     }
+
+    @Test
+    public void the_parts_of_a_followed_file_are_published_as_it_grows_and_their_marks_are_kept() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_0));
+        File growing = util.createDummyFile(PART_LENGTH + 100);
+        FollowedFileUpdater updater = new FollowedFileUpdater(c, new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        ChecksumFileFollower follower = new ChecksumFileFollower(growing, PART_LENGTH, ALGORITHM, updater);
+
+        follower.poll();
+        assertEquals(2, c.getFilesCount());
+        assertEquals(2, c.getDifferences());
+        c.setMark(0, 0, Mark.BAD);
+
+        appendDummyData(growing, PART_LENGTH * 3);
+        follower.poll();
+        assertEquals(2, c.getFilesCount());
+        assertSame(updater.getCurrent(), c.getFile(1));
+        assertEquals(3, c.getFile(1).getParts());
+        assertEquals(1, c.getDifferences());
+        assertEquals(Mark.BAD, c.getMark(0, 0));
+    }
+
+    @Test
+    public void copies_compared_directly_are_not_zoomed_or_added_to_with_another_algorithm() throws IOException {
+        File file1 = util.createDummyFile(PART_LENGTH * 2);
+        File file2 = util.createDummyFile(PART_LENGTH * 2);
+        TestDataUtil.corruptDataAtOffsets(file2, START_OFFSET_1);
+        Comparison c = new Comparison();
+        for (ChecksumFile cf : DirectComparator.compare(Arrays.asList(file1, file2), PART_LENGTH))
+            assertTrue(c.addFile(cf));
+        c.doCompare();
+        assertEquals(1, c.getDifferences());
+
+        assertFalse(c.canCalculateChecksums());
+        assertFalse(c.zoom(0, PART_LENGTH / 4));
+        assertEquals(Comparison.WHOLE_PART, c.getSubPart(0));
+        assertFalse(c.addFile(ChecksumFileFactory.createChecksumFile(file1, PART_LENGTH, ALGORITHM)));
+        assertEquals(2, c.getFilesCount());
+        try {
+            c.createLazyChecksumFile(util.createDummyFile(PART_LENGTH * 2));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void copies_compared_directly_have_the_same_differences_as_when_compared_by_checksums() throws IOException {
+        File file1 = util.createDummyFile(PART_LENGTH * 5 - 10);
+        File file2 = util.createDummyFile(PART_LENGTH * 5 - 10);
+        File file3 = util.createDummyFile(PART_LENGTH * 4);
+        TestDataUtil.corruptDataAtOffsets(file2, START_OFFSET_1, START_OFFSET_3);
+        TestDataUtil.corruptDataAtOffsets(file3, START_OFFSET_1);
+
+        Comparison byChecksums = new Comparison();
+        for (File file : Arrays.asList(file1, file2, file3))
+            byChecksums.addFile(ChecksumFileFactory.createChecksumFile(file, PART_LENGTH, ALGORITHM));
+        byChecksums.doCompare();
+
+        Comparison direct = new Comparison();
+        for (ChecksumFile cf : DirectComparator.compare(Arrays.asList(file1, file2, file3), PART_LENGTH))
+            direct.addFile(cf);
+        direct.doCompare();
+
+        assertEquals(3, direct.getFilesCount());
+        assertEquals(5, direct.getFile(0).getParts());
+        assertEquals(4, direct.getFile(2).getParts());
+        assertEquals(byChecksums.getDifferences(), direct.getDifferences());
+        for (int diff = 0; diff < direct.getDifferences(); diff++) {
+            assertEquals(byChecksums.getPart(diff), direct.getPart(diff));
+            assertEquals(byChecksums.getStartOffset(diff), direct.getStartOffset(diff));
+            assertEquals(byChecksums.getEndOffset(diff), direct.getEndOffset(diff));
+        }
+        assertEquals(byChecksums.getChecksum(0, 1), byChecksums.getChecksum(0, 2));
+        assertEquals(direct.getChecksum(0, 1), direct.getChecksum(0, 2));
+        assertFalse(direct.getChecksum(0, 0).equals(direct.getChecksum(0, 1)));
+    }
+
+    @Test
+    public void a_further_copy_is_read_only_at_the_parts_where_the_earlier_copies_disagree() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 5));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 5, START_OFFSET_1));
+        File file3 = util.createDummyFile(PART_LENGTH * 5);
+        TestDataUtil.corruptDataAtOffsets(file3, START_OFFSET_3);
+
+        ChecksumFile lazy = c.createLazyChecksumFile(file3);
+        assertFalse(lazy.isComplete());
+        assertEquals(5, lazy.getParts());
+        assertTrue(lazy.hasPart(1));
+        assertFalse(lazy.hasPart(0));
+        assertFalse(lazy.hasPart(3));
+
+        c.addFile(lazy);
+        c.doCompare();
+        assertEquals(3, c.getFilesCount());
+        assertEquals(1, c.getDifferences());
+        assertEquals(1, c.getPart(0));
+        assertEquals(c.getChecksum(0, 0), c.getChecksum(0, 2));
+    }
+
+    @Test
+    public void identical_files_can_be_collapsed_into_one_column() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1));
+        c.doCompare();
+        assertEquals(4, c.getFilesCount());
+        assertEquals(1, c.getDifferences());
+        c.setMark(0, 1, Mark.BAD);
+
+        c.setCollapseIdenticalFiles(true);
+        c.doCompare();
+        assertEquals(2, c.getFilesCount());
+        assertEquals(2, c.getMultiplicity(0));
+        assertEquals(2, c.getMultiplicity(1));
+        assertEquals(1, c.getDifferences());
+        assertEquals(Mark.BAD, c.getMark(0, 1));
+
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3));
+        c.doCompare();
+        assertEquals(2, c.getFilesCount());
+        assertEquals(3, c.getMultiplicity(0));
+
+        c.setCollapseIdenticalFiles(false);
+        c.doCompare();
+        assertEquals(5, c.getFilesCount());
+        assertEquals(1, c.getMultiplicity(0));
+        assertEquals(1, c.getDifferences());
+        assertEquals(Mark.BAD, c.getMark(0, 3));
+    }
+
+    @Test
+    public void all_files_are_compared_in_one_pass_with_the_same_result_as_comparing_each_pair() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 20, START_OFFSET_1, PART_LENGTH * 9));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 17 + 10, START_OFFSET_1, PART_LENGTH * 16));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 20, START_OFFSET_3));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 24, PART_LENGTH * 19, PART_LENGTH * 22));
+        c.doCompare();
+
+        Set<Integer> expectedParts = new TreeSet<Integer>();
+        for (int i = 0; i < c.getFilesCount(); i++) {
+            for (int j = i + 1; j < c.getFilesCount(); j++) {
+                ChecksumFile file1 = c.getFile(i);
+                ChecksumFile file2 = c.getFile(j);
+                int shortest = Math.min(file1.getParts(), file2.getParts());
+                int differences = 0;
+                for (int part = 0; part < shortest; part++) {
+                    if (!file1.getChecksum(part).equals(file2.getChecksum(part))) {
+                        differences++;
+                        expectedParts.add(part);
+                    }
+                }
+                assertEquals(1.0 - (1.0 * differences) / shortest, c.similarity.get(i, j), 0.0);
+            }
+        }
+        List<Integer> actualParts = new ArrayList<Integer>();
+        for (int diff = 0; diff < c.getDifferences(); diff++)
+            actualParts.add(c.getPart(diff));
+        assertEquals(new ArrayList<Integer>(expectedParts), actualParts);
+    }
+
+    @Test
+    public void the_marks_of_the_parts_are_kept_when_saved_and_loaded() throws IOException {
+        Comparison original = new Comparison();
+        original.addFile(util.createChecksumFile(PART_LENGTH * 4, START_OFFSET_0, START_OFFSET_2));
+        original.addFile(util.createChecksumFile(PART_LENGTH * 4, START_OFFSET_1));
+        original.addFile(util.createChecksumFile(PART_LENGTH * 4));
+        original.doCompare();
+        original.setMark(0, 0, Mark.BAD);
+        original.setMark(1, 1, Mark.BAD);
+        original.setMark(2, 2, Mark.GOOD);
+
+        File tmp = util.uniqueFile();
+        new ComparisonLoader(original).saveToFile(tmp);
+        Comparison loaded = new ComparisonLoader(tmp).getComparison();
+
+        assertEquals(3, loaded.getDifferences());
+        for (int diff = 0; diff < 3; diff++) {
+            for (int file = 0; file < 3; file++) {
+                assertEquals(original.getChecksum(diff, file), loaded.getChecksum(diff, file));
+                assertEquals(original.getMark(diff, file), loaded.getMark(diff, file));
+            }
+        }
+        assertEquals(Mark.BAD, loaded.getMark(1, 1));
+        assertEquals(Mark.UNDEFINED, loaded.getMark(1, 0));
+        assertEquals(Mark.GOOD, loaded.getMark(2, 2));
+        assertEquals(Mark.GOOD, loaded.getMark(2, 1));
+    }
+
+    @Test
+    public void the_parts_are_compared_in_parallel_ranges_and_the_progress_is_reported() throws IOException {
+        int parts = 5000;
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * parts, START_OFFSET_1, PART_LENGTH * 2047L, PART_LENGTH * 4999L));
+        c.addFile(util.createChecksumFile(PART_LENGTH * parts, PART_LENGTH * 2048L));
+        c.addFile(util.createChecksumFile(PART_LENGTH * (parts - 1)));
+        final List<Long> progress = Collections.synchronizedList(new ArrayList<Long>());
+
+        assertTrue(c.doCompare(new Comparison.ProgressListener() {
+            public void progressChanged(long comparedParts, long totalParts) {
+                assertEquals(5000, totalParts);
+                progress.add(comparedParts);
+            }
+
+            public boolean isCancelled() {
+                return false;
+            }
+        }));
+        assertEquals(4, c.getDifferences());
+        assertEquals(Arrays.asList(1, 2047, 2048, 4999),
+                Arrays.asList(c.getPart(0), c.getPart(1), c.getPart(2), c.getPart(3)));
+        assertEquals(Long.valueOf(5000), Collections.max(progress));
+    }
+
+    @Test
+    public void a_cancelled_comparison_is_done_again_when_next_compared() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3));
+        c.doCompare();
+        c.setMark(0, 0, Mark.BAD);
+        c.setCollapseIdenticalFiles(true);
+
+        assertFalse(c.doCompare(new Comparison.ProgressListener() {
+            public void progressChanged(long comparedParts, long totalParts) {
+            }
+
+            public boolean isCancelled() {
+                return true;
+            }
+        }));
+        assertEquals(-1, c.getDifferences());
+
+        assertTrue(c.doCompare(null));
+        assertEquals(1, c.getDifferences());
+        assertEquals(1, c.getPart(0));
+        assertEquals(Mark.BAD, c.getMark(0, 0));
+    }
+
+    @Test
+    public void parts_whose_length_is_not_divisible_by_the_zoom_factor_can_be_zoomed() throws IOException {
+        long partLength = 1500;
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(partLength * 3, partLength, ALGORITHM, partLength + 10));
+        c.addFile(util.createChecksumFile(partLength * 3, partLength, ALGORITHM));
+        c.doCompare();
+        assertEquals(1, c.getDifferences());
+
+        long subPartLength = c.getSubPartLength(16);
+        assertEquals(75, subPartLength);
+        assertTrue(c.zoom(0, subPartLength));
+        assertEquals(1, c.getDifferences());
+        assertEquals(partLength, c.getStartOffset(0));
+        assertEquals(partLength + subPartLength - 1, c.getEndOffset(0));
+    }
+
+    @Test
+    public void adding_and_removing_files_updates_the_comparison_incrementally_and_keeps_the_marks() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 12, START_OFFSET_1, PART_LENGTH * 9));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 12));
+        c.doCompare();
+        assertEquals(2, c.getDifferences());
+        c.setMark(0, 0, Mark.BAD);
+        assertTrue(c.zoom(1, PART_LENGTH / 4));
+
+        c.addFile(util.createChecksumFile(PART_LENGTH * 10 + 10, START_OFFSET_3, PART_LENGTH * 9 + 500));
+        assertEquals(5, c.getDifferences());
+        assertSameAsComparedFromScratch(c);
+        assertEquals(Mark.BAD, c.getMark(0, 0));
+        assertEquals(9, c.getPart(3));
+        assertEquals(1, c.getSubPart(3));
+
+        c.removeFile(0);
+        assertEquals(3, c.getDifferences());
+        assertSameAsComparedFromScratch(c);
+        assertEquals(3, c.getPart(0));
+        assertEquals(9, c.getPart(1));
+        assertEquals(1, c.getSubPart(1));
+    }
+
+    @Test
+    public void removing_a_file_forgets_the_items_which_only_it_had() throws IOException {
+        ChecksumFile corrupt = util.createChecksumFile(PART_LENGTH * 4, START_OFFSET_1);
+        Comparison c = new Comparison();
+        c.addFile(corrupt);
+        c.addFile(util.createChecksumFile(PART_LENGTH * 4, START_OFFSET_2));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 4));
+        c.doCompare();
+        c.setMark(0, 0, Mark.BAD);
+        c.setMark(1, 1, Mark.BAD);
+
+        c.removeFile(0);
+        c.addFile(corrupt);
+        assertEquals(2, c.getDifferences());
+        assertEquals(Mark.BAD, c.getMark(1, 0));
+        assertEquals(Mark.UNDEFINED, c.getMark(0, 2));
+    }
+
+    private static void assertSameAsComparedFromScratch(Comparison c) {
+        Comparison expected = new Comparison();
+        for (int file = 0; file < c.getFilesCount(); file++)
+            expected.addFile(c.getFile(file));
+        expected.doCompare();
+        Set<Integer> expectedParts = new TreeSet<Integer>();
+        for (int diff = 0; diff < expected.getDifferences(); diff++)
+            expectedParts.add(expected.getPart(diff));
+        Set<Integer> actualParts = new TreeSet<Integer>();
+        for (int diff = 0; diff < c.getDifferences(); diff++)
+            actualParts.add(c.getPart(diff));
+        assertEquals(expectedParts, actualParts);
+        for (int i = 0; i < c.getFilesCount(); i++)
+            for (int j = 0; j < c.getFilesCount(); j++)
+                assertEquals(expected.similarity.get(i, j), c.similarity.get(i, j), 0.0);
+    }
+
+    @Test
+    public void the_files_with_equal_checksums_at_a_row_have_the_same_code_and_item() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH));
+        c.doCompare();
+        assertEquals(1, c.getDifferences());
+
+        assertEquals(c.getChecksumCode(0, 0), c.getChecksumCode(0, 2));
+        assertTrue(c.getChecksumCode(0, 0) != c.getChecksumCode(0, 1));
+        assertEquals(-1, c.getChecksumCode(0, 3));
+        assertSame(c.getItem(0, 0), c.getItem(0, 2));
+        assertNull(c.getItem(0, 3));
+
+        c.setMark(0, 2, Mark.BAD);
+        assertEquals(Mark.BAD, c.getMark(0, 0));
+        assertEquals(Mark.UNDEFINED, c.getMark(0, 1));
+    }
+
+    @Test
+    public void a_comparison_saved_by_the_earlier_versions_can_be_loaded() throws Exception {
+        File saved = new File(getClass().getResource("baseline.ccc").toURI());
+        Comparison c = new ComparisonLoader(saved).getComparison();
+
+        assertNotNull(c);
+        assertEquals("baseline", c.getName());
+        assertEquals(2, c.getFilesCount());
+        assertEquals(1, c.getDifferences());
+        assertEquals(1, c.getPart(0));
+        assertEquals(Mark.GOOD, c.getMark(0, 0));
+        assertEquals(Mark.BAD, c.getMark(0, 1));
+        assertEquals(0.75, c.similarity.get(0, 1), 0.0);
+    }
 }
@@ -0,0 +1,67 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.comparison;
+
+import net.orfjackal.ccorr.utils.TestDataUtil;
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+
+import static net.orfjackal.ccorr.utils.TestDataUtil.*;
+
+public class TriageTest extends Assert {
+
+    private TestDataUtil util = new TestDataUtil();
+
+    @Before
+    public void initUtil() throws IOException {
+        util.create();
+    }
+
+    @After
+    public void disposeUtil() {
+        util.dispose();
+    }
+
+    private File copy(long... corruptedOffsets) throws IOException {
+        File file = util.createDummyFile(PART_LENGTH * 8);
+        TestDataUtil.corruptDataAtOffsets(file, corruptedOffsets);
+        return file;
+    }
+
+    @Test
+    public void the_sample_is_spread_over_the_whole_file_and_is_the_same_every_time() {
+        BitSet sample = Triage.choose(1000, 10);
+
+        assertEquals(10, sample.cardinality());
+        for (int i = 0; i < 10; i++)
+            assertEquals(1, sample.get(i * 100, (i + 1) * 100).cardinality());
+        assertEquals(sample, Triage.choose(1000, 10));
+        assertEquals(5, Triage.choose(5, 10).cardinality());
+    }
+
+    @Test
+    public void duplicates_and_copies_which_add_no_good_parts_are_not_recommended() throws IOException {
+        File file0 = copy(START_OFFSET_0 + PART_LENGTH * 5);
+        File file1 = copy(START_OFFSET_0 + PART_LENGTH * 5);
+        File file2 = copy(START_OFFSET_1);
+        File file3 = copy(START_OFFSET_1, START_OFFSET_3);
+        File file4 = copy(START_OFFSET_0, START_OFFSET_2, PART_LENGTH * 4, PART_LENGTH * 6);
+
+        Triage triage = new Triage(Arrays.asList(file0, file1, file2, file3, file4), PART_LENGTH, ALGORITHM);
+        triage.calculate();
+
+        assertEquals(8, triage.getSampledParts().cardinality());
+        assertEquals(1.0, triage.getSimilarity().get(0, 1), 0.0);
+        assertEquals(0.75, triage.getSimilarity().get(0, 2), 0.0);
+        assertEquals(0, triage.getDuplicateOf(1));
+        assertEquals(-1, triage.getDuplicateOf(2));
+        assertEquals(1.0 / 8, triage.getCorruptionRate(0), 0.0);
+        assertEquals(2.0 / 8, triage.getCorruptionRate(3), 0.0);
+        assertEquals(4.0 / 8, triage.getCorruptionRate(4), 0.0);
+        assertEquals(Arrays.asList(file0, file2), triage.getRecommended());
+    }
+}
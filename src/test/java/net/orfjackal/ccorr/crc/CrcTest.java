@@ -9,6 +9,8 @@ import net.orfjackal.ccorr.crc.CRCAlgorithmFactory;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
 /**
  * @author Esko Luontola
  */
@@ -37,9 +39,63 @@ public class CrcTest extends Assert {
         assertEquals("494179714a6cd627239dfededf2de9ef994caf03", calculate("SHA-1", DATA));
     }
 
+    @Test
+    public void calculates_CRC32C() {
+        assertEquals("E3069283", calculate("CRC-32C", "123456789".getBytes()));
+    }
+
+    @Test
+    public void calculates_xxHash64() {
+        assertEquals("44BC2CF5AD770999", calculate("xxHash64", "abc".getBytes()));
+        assertEquals("FBCEA83C8A378BF1", calculate("xxHash64", "Nobody inspects the spammish repetition".getBytes()));
+    }
+
+    @Test
+    public void xxHash64_gives_the_same_value_regardless_of_how_the_data_is_split() {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i * 31);
+        CRC crc = new CRC(CRCAlgorithmFactory.getByName("xxHash64"));
+        for (int offset = 0, step = 1; offset < data.length; offset += step, step += 7)
+            crc.update(data, offset, Math.min(step, data.length - offset));
+        assertEquals(calculate("xxHash64", data), crc.getHexValue());
+    }
+
     @Test
     public void when_data_contains_entirely_the_same_byte_then_the_byte_is_shown_in_hex() {
         assertEquals("0x00", calculate("CRC-32", new byte[]{0, 0, 0, 0, 0, 0}));
         assertEquals("0x20", calculate("CRC-32", new byte[]{' ', ' ', ' ', ' '}));
     }
+
+    @Test
+    public void calculates_the_same_checksum_from_a_direct_buffer() {
+        for (byte[] data : new byte[][]{DATA, {7, 7, 7, 7}}) {
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data).flip();
+            CRC crc = new CRC(CRCAlgorithmFactory.getByName("SHA-1"));
+            crc.update(direct);
+            assertEquals(calculate("SHA-1", data), crc.getHexValue());
+        }
+    }
+
+    @Test
+    public void only_the_given_range_of_the_array_is_checked_for_the_same_byte() {
+        CRC crc = new CRC(CRCAlgorithmFactory.getByName("CRC-32"));
+        crc.update(new byte[]{1, 5, 5, 5, 2}, 1, 3);
+        assertEquals("0x05", crc.getHexValue());
+    }
+
+    @Test
+    public void a_differing_byte_after_many_blocks_of_the_same_byte_is_noticed() {
+        byte[] data = new byte[CRC.BLOCK_LENGTH * 3 + 5];
+        assertEquals("0x00", calculate("CRC-32", data));
+        data[data.length - 1] = 1;
+        CRC whole = new CRC(CRCAlgorithmFactory.getByName("CRC-32"));
+        whole.update(data, 0, data.length);
+        CRC piecewise = new CRC(CRCAlgorithmFactory.getByName("CRC-32"));
+        piecewise.update(data, 0, 100);
+        piecewise.update(data, 100, data.length - 100);
+        assertFalse(whole.isUniform());
+        assertEquals(whole.getHexValue(), piecewise.getHexValue());
+    }
 }
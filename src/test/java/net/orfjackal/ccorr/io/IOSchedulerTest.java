@@ -0,0 +1,84 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.io;
+
+import org.junit.*;
+
+import java.util.*;
+
+public class IOSchedulerTest extends Assert {
+
+    @Test
+    public void jobs_on_a_hard_disk_are_run_one_at_a_time() throws Exception {
+        final Device disk = new Device("sda", Device.Kind.ROTATIONAL);
+        disk.acquire();
+        Thread second = new Thread() {
+            public void run() {
+                try {
+                    disk.acquire();
+                } catch (InterruptedException e) {
+                    // the test fails below
+                }
+            }
+        };
+        second.start();
+        second.join(200);
+        assertTrue(second.isAlive());
+
+        disk.release();
+        second.join(1000);
+        assertFalse(second.isAlive());
+    }
+
+    @Test
+    public void the_limit_is_raised_while_it_improves_the_throughput() {
+        Device device = new Device("nvme0n1", Device.Kind.UNKNOWN);
+        assertEquals(2, device.getLimit());
+
+        device.measured(100, true);
+        assertEquals(3, device.getLimit());
+        device.measured(150, true);
+        assertEquals(4, device.getLimit());
+        device.measured(200, true);
+        assertEquals("the maximum", 4, device.getLimit());
+    }
+
+    @Test
+    public void the_limit_is_lowered_back_if_the_throughput_drops() {
+        Device disk = new Device("sda", Device.Kind.ROTATIONAL);
+
+        disk.measured(100, true);
+        assertEquals(2, disk.getLimit());
+        disk.measured(60, true);
+        assertEquals(1, disk.getLimit());
+        for (int i = 0; i < Device.HOLD_PERIODS; i++)
+            disk.measured(100, true);
+        assertEquals("kept for a while", 1, disk.getLimit());
+    }
+
+    @Test
+    public void the_limit_is_not_changed_when_no_job_had_to_wait() {
+        Device device = new Device("sdb", Device.Kind.SOLID_STATE);
+        int limit = device.getLimit();
+
+        device.measured(100, false);
+        device.measured(200, false);
+        assertEquals(limit, device.getLimit());
+    }
+
+    @Test(timeout = 1000)
+    public void files_on_the_same_device_share_one_permit() throws Exception {
+        Device disk = new Device("sda", Device.Kind.ROTATIONAL);
+        Device ssd = new Device("sdb", Device.Kind.SOLID_STATE);
+        List<IOScheduler.Permit> permits = new IOScheduler().acquireDevices(Arrays.asList(disk, ssd, disk));
+        assertEquals(3, permits.size());
+        assertSame(permits.get(0), permits.get(2));
+        assertNotSame(permits.get(0), permits.get(1));
+
+        for (IOScheduler.Permit permit : permits)
+            permit.release();
+        new IOScheduler().acquire(disk).release();
+    }
+}
@@ -0,0 +1,65 @@
+// Copyright © 2003-2006, 2010-2015, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr.io;
+
+import org.junit.*;
+
+import java.io.IOException;
+
+public class ThrottleTest extends Assert {
+
+    @Test
+    public void an_unlimited_throttle_does_not_wait() throws IOException {
+        Throttle throttle = new Throttle();
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++)
+            throttle.acquire(1024 * 1024);
+        assertTrue(millisSince(start) < 500);
+    }
+
+    @Test
+    public void the_bytes_per_second_are_limited() throws IOException {
+        Throttle throttle = new Throttle(1000, Throttle.UNLIMITED);
+        long start = System.nanoTime();
+        throttle.acquire(300);
+        throttle.acquire(300);
+        assertTrue(millisSince(start) >= 250);
+    }
+
+    @Test
+    public void the_operations_per_second_are_limited() throws IOException {
+        Throttle throttle = new Throttle(Throttle.UNLIMITED, 10);
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++)
+            throttle.acquire(1);
+        assertTrue(millisSince(start) >= 250);
+    }
+
+    @Test
+    public void the_limit_can_be_changed_while_a_job_is_waiting() throws Exception {
+        final Throttle throttle = new Throttle(1, Throttle.UNLIMITED);
+        throttle.acquire(1000);
+        Thread waiting = new Thread() {
+            public void run() {
+                try {
+                    throttle.acquire(1);
+                } catch (IOException e) {
+                    // the test fails below
+                }
+            }
+        };
+        waiting.start();
+        waiting.join(200);
+        assertTrue(waiting.isAlive());
+
+        throttle.setBytesPerSecond(Throttle.UNLIMITED);
+        waiting.join(1000);
+        assertFalse(waiting.isAlive());
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+}
@@ -66,7 +66,18 @@ public class TestDataUtil {
         out.close();
     }
 
-    private static void corruptDataAtOffsets(File file, long... corruptionOffsets) throws IOException {
+    /**
+     * Makes the file longer, continuing with the same data as {@link #createDummyFile}.
+     */
+    public static void appendDummyData(File file, long newLength) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file, true), GoodCombinationWriter.BUFFER_LENGTH);
+        for (long pos = file.length(); pos < newLength; pos++) {
+            out.write((byte) pos);
+        }
+        out.close();
+    }
+
+    public static void corruptDataAtOffsets(File file, long... corruptionOffsets) throws IOException {
         RandomAccessFile raf = new RandomAccessFile(file, "rw");
         for (long offset : corruptionOffsets) {
             raf.seek(offset);